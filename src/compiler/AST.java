@@ -31,6 +31,9 @@ public class AST {
 		final List<ParNode> parlist;
 		final List<DecNode> declist; 
 		final Node exp;
+		int nl; // nesting level del corpo (assegnato da DisplayASTVisitor)
+		String label;
+		final List<Integer> display = new ArrayList<>(); // livelli dei frame esterni nel display (vedi CodeGenerationASTVisitor)
 		FunNode(String i, TypeNode rt, List<ParNode> pl, List<DecNode> dl, Node e) {
 	    	id=i; 
 	    	retType=rt; 
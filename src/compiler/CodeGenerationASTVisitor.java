@@ -3,311 +3,427 @@ package compiler;
 import compiler.AST.*;
 import compiler.lib.*;
 import compiler.exc.*;
-import svm.ExecuteVM;
+import svm.Code;
 
 import java.util.ArrayList;
 import java.util.List;
 
 import static compiler.lib.FOOLlib.*;
+import static svm.Code.*;
 
-public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidException> {
+public class CodeGenerationASTVisitor extends BaseASTVisitor<Code, VoidException> {
 
 	private List<List<String>> dispatchTables = new ArrayList<>();
+
+	// chiamate in coda: nodo il cui valore e' il risultato della funzione (o metodo) corrente,
+	// e numero di parametri e dichiarazioni locali del suo frame
+	private Node tailPosition;
+	private int tailParams, tailDecls;
+
+	// funzione il cui corpo e' in generazione, con il display nel frame (null altrimenti)
+	private FunNode displayFrame;
   	CodeGenerationASTVisitor() {}
   	CodeGenerationASTVisitor(boolean debug) {super(false,debug);} //enables print for debugging
 
 	@Override
-	public String visitNode(ProgLetInNode n) {
+	public Code visitNode(ProgLetInNode n) {
 		if (print) printNode(n);
-		String declCode = null;
+		new DisplayASTVisitor().visit(n); // sceglie il display di ogni funzione (FunNode.display)
+		Code declCode = null;
 		for (Node dec : n.declist) declCode=nlJoin(declCode,visit(dec));
 		return nlJoin(
-			"push 0",
+			push(0),
 			declCode, // generate code for declarations (allocation)
 			visit(n.exp),
-			"halt",
+			halt(),
 			getCode()
 		);
 	}
 
 	@Override
-	public String visitNode(ProgNode n) {
+	public Code visitNode(ProgNode n) {
 		if (print) printNode(n);
 		return nlJoin(
 			visit(n.exp),
-			"halt"
+			halt()
 		);
 	}
 
 	@Override
-	public String visitNode(FunNode n) {
+	public Code visitNode(FunNode n) {
 		if (print) printNode(n,n.id);
-		String declCode = null, popDecl = null, popParl = null;
+		Code declCode = null, displayCode = null, popDecl = null, popParl = null;
 		for (Node dec : n.declist) {
 			declCode = nlJoin(declCode,visit(dec));
-			popDecl = nlJoin(popDecl,"pop");
+			if (!(dec instanceof FunNode)) popDecl = nlJoin(popDecl,pop());
 		}
-		for (int i=0;i<n.parlist.size();i++) popParl = nlJoin(popParl,"pop");
-		String funl = freshFunLabel();
+		for (int level : n.display) {
+			displayCode = nlJoin(displayCode,frame(n.nl,level)); // by following the static chain
+			popDecl = nlJoin(popDecl,pop());
+		}
+		for (int i=0;i<n.parlist.size();i++) popParl = nlJoin(popParl,pop());
+		String funl = n.label;
+		FunNode prevDisplayFrame = displayFrame;
+		displayFrame = n;
+		Code bodyCode = visitBody(n.exp,n.parlist.size(),declWords(n.declist)+n.display.size());
+		displayFrame = prevDisplayFrame;
 		putCode(
 			nlJoin(
-				funl+":",
-				"cfp", // set $fp to $sp value
-				"lra", // load $ra value
+				label(funl),
+				cfp(), // set $fp to $sp value
+				lra(), // load $ra value
 				declCode, // generate code for local declarations (they use the new $fp!!!)
-				visit(n.exp), // generate code for function body expression
-				"stm", // set $tm to popped value (function result)
+				displayCode, // generate code for the display (addresses of the outer frames used by the body)
+				bodyCode, // generate code for function body expression
+				stm(), // set $tm to popped value (function result)
 				popDecl, // remove local declarations from stack
-				"sra", // set $ra to popped value
-				"pop", // remove Access Link from stack
+				sra(), // set $ra to popped value
+				pop(), // remove Access Link from stack
 				popParl, // remove parameters from stack
-				"sfp", // set $fp to popped value (Control Link)
-				"ltm", // load $tm value (function result)
-				"lra", // load $ra value
-				"js"  // jump to to popped address
+				sfp(), // set $fp to popped value (Control Link)
+				ltm(), // load $tm value (function result)
+				lra(), // load $ra value
+				js()  // jump to to popped address
 			)
 		);
-		return "push "+funl;
+		return null; // chiamata direttamente alla sua label: non occupa posto nel frame
+	}
+
+	// il corpo e' in posizione di coda, e lo sono i rami di un if in posizione di coda
+	private Code visitBody(Node exp, int params, int decls) {
+		tailPosition = exp;
+		tailParams = params;
+		tailDecls = decls;
+		return visit(exp);
+	}
+
+	// chiamata in coda all'indirizzo in cima allo stack, sotto il quale ci sono l'Access Link e gli
+	// argomenti: questi prendono il posto di parametri e Access Link del frame corrente (di cui
+	// restano il Control Link e l'indirizzo di ritorno), quindi lo stack non cresce
+	private Code tailCall(int args) {
+		int distance = tailParams + tailDecls + 2; // dall'Access Link nuovo a quello corrente
+		Code move = null, popFrame = null;
+		for (int j = args; j >= 0; j--) { // dall'ultimo argomento all'Access Link (la destinazione e' piu' in alto)
+			int from = -2 - tailDecls - args + j;
+			move = nlJoin(move,
+				lfp(), push(from), add(), lw(),
+				lfp(), push(from + distance), add(), sw()
+			);
+		}
+		for (int i = 0; i < distance; i++) popFrame = nlJoin(popFrame,pop());
+		return nlJoin(
+			stm(), // set $tm to popped value (address of the called function)
+			lfp(), push(-1), add(), lw(), sra(), // set $ra to the return address of the current function
+			move, // move Access Link and arguments over the current frame, up to its Control Link
+			popFrame, // $sp to the moved Access Link
+			ltm(), // load $tm value (address of the called function)
+			tjs() // jump to popped address (keeping $ra)
+		);
+	}
+
+	// parole occupate nel frame dalle dichiarazioni locali (non le funzioni)
+	private static int declWords(List<DecNode> declist) {
+		int words = 0;
+		for (Node dec : declist) if (!(dec instanceof FunNode)) words++;
+		return words;
+	}
+
+	// indirizzo del frame (o dell'oggetto) di nesting level declNl visto da codice di livello nl:
+	// dal display se il corpo in generazione ne ha uno per quel livello, altrimenti risalendo la
+	// catena statica. Il display segue le dichiarazioni locali, nell'ordine di n.display
+	private Code frame(int nl, int declNl) {
+		if (displayFrame != null && displayFrame.display.contains(declNl))
+			return nlJoin(lfp(), push(-2-declWords(displayFrame.declist)-displayFrame.display.indexOf(declNl)), add(), lw());
+		Code getAR = lfp();
+		for (int i = 0;i<nl-declNl;i++) getAR=nlJoin(getAR,lw());
+		return getAR;
 	}
 
 	@Override
-	public String visitNode(VarNode n) {
+	public Code visitNode(VarNode n) {
 		if (print) printNode(n,n.id);
 		return visit(n.exp);
 	}
 
 	@Override
-	public String visitNode(PrintNode n) {
+	public Code visitNode(PrintNode n) {
 		if (print) printNode(n);
 		return nlJoin(
 			visit(n.exp),
-			"print"
+			print()
 		);
 	}
 
 	@Override
-	public String visitNode(IfNode n) {
+	public Code visitNode(IfNode n) {
 		if (print) printNode(n);
 	 	String l1 = freshLabel();
 	 	String l2 = freshLabel();
+		boolean tail = n == tailPosition;
+		Code condCode = jumpIf(n.cond,true,l1);
+		if (tail) tailPosition = n.el;
+		Code elCode = visit(n.el);
+		if (tail) tailPosition = n.th;
+		Code thCode = visit(n.th);
 		return nlJoin(
-			visit(n.cond),
-			"push 1",
-			"beq "+l1,
-			visit(n.el),
-			"b "+l2,
-			l1+":",
-			visit(n.th),
-			l2+":"
+			condCode, // jump to the then branch if the condition holds
+			elCode,
+			b(l2),
+			label(l1),
+			thCode,
+			label(l2)
 		);
 	}
 
+	// salto a label se la condizione n vale when, altrimenti prosegue: && e || valutano il secondo
+	// operando solo se serve, ! scambia il caso, i confronti saltano direttamente con beq/bleq
+	// (senza produrre il valore 0/1); ogni altra espressione booleana viene valutata e confrontata
+	private Code jumpIf(Node n, boolean when, String label) {
+		if (n instanceof BoolNode c) return c.val == when ? b(label) : null;
+		if (n instanceof NotNode not) return jumpIf(not.exp,!when,label);
+		if (n instanceof AndNode and) {
+			if (!when) return nlJoin(jumpIf(and.left,false,label), jumpIf(and.right,false,label));
+			String skip = freshLabel();
+			return nlJoin(jumpIf(and.left,false,skip), jumpIf(and.right,true,label), label(skip));
+		}
+		if (n instanceof OrNode or) {
+			if (when) return nlJoin(jumpIf(or.left,true,label), jumpIf(or.right,true,label));
+			String skip = freshLabel();
+			return nlJoin(jumpIf(or.left,true,skip), jumpIf(or.right,false,label), label(skip));
+		}
+		if (!(n instanceof EqualNode || n instanceof LessEqualNode || n instanceof GreaterEqualNode))
+			return nlJoin(visit(n), push(when ? 1 : 0), beq(label));
+		String target = when ? label : freshLabel(); // con when false il confronto vero salta oltre il b a label
+		Code compare;
+		if (n instanceof EqualNode eq) compare = nlJoin(visit(eq.left), visit(eq.right), beq(target));
+		else if (n instanceof LessEqualNode le) compare = nlJoin(visit(le.left), visit(le.right), bleq(target));
+		else {
+			GreaterEqualNode ge = (GreaterEqualNode) n;
+			compare = nlJoin(visit(ge.right), visit(ge.left), bleq(target));
+		}
+		return when ? compare : nlJoin(compare, b(label), label(target));
+	}
+
 	@Override
-	public String visitNode(EqualNode n) {
+	public Code visitNode(EqualNode n) {
 		if (print) printNode(n);
 	 	String l1 = freshLabel();
 	 	String l2 = freshLabel();
 		return nlJoin(
 			visit(n.left),
 			visit(n.right),
-			"beq "+l1,
-			"push 0",
-			"b "+l2,
-			l1+":",
-			"push 1",
-			l2+":"
+			beq(l1),
+			push(0),
+			b(l2),
+			label(l1),
+			push(1),
+			label(l2)
 		);
 	}
 
 	@Override
-	public String visitNode(GreaterEqualNode n) throws VoidException {
+	public Code visitNode(GreaterEqualNode n) throws VoidException {
 		if (print) printNode(n);
 		String l1 = freshLabel();
 		String l2 = freshLabel();
 		return nlJoin(
 				visit(n.right),
 				visit(n.left),
-				"bleq "+l1,
-				"push 0",
-				"b "+l2,
-				l1+":",
-				"push 1",
-				l2+":"
+				bleq(l1),
+				push(0),
+				b(l2),
+				label(l1),
+				push(1),
+				label(l2)
 		);
 	}
 
 	@Override
-	public String visitNode(LessEqualNode n) throws VoidException {
+	public Code visitNode(LessEqualNode n) throws VoidException {
 		if (print) printNode(n);
 		String l1 = freshLabel();
 		String l2 = freshLabel();
 		return nlJoin(
 				visit(n.left),
 				visit(n.right),
-				"bleq "+l1,
-				"push 0",
-				"b "+l2,
-				l1+":",
-				"push 1",
-				l2+":"
+				bleq(l1),
+				push(0),
+				b(l2),
+				label(l1),
+				push(1),
+				label(l2)
 		);
 	}
 
 	@Override
-	public String visitNode(AndNode n) throws VoidException {
+	public Code visitNode(AndNode n) throws VoidException {
 		if (print) printNode(n);
 		String l1 = freshLabel();
 		String l2 = freshLabel();
 		return nlJoin(
-				visit(n.left),
+				jumpIf(n.left,false,l1), // se il primo e' falso il secondo non viene valutato
 				visit(n.right),
-				"mult"
+				b(l2),
+
+				label(l1),
+				push(0),
+
+				label(l2)
 		);
 	}
 
 	@Override
-	public String visitNode(OrNode n) throws VoidException {
+	public Code visitNode(OrNode n) throws VoidException {
 		if (print) printNode(n);
 		String l1 = freshLabel();
 		String l2 = freshLabel();
 		return nlJoin(
-				visit(n.left),
+				jumpIf(n.left,true,l1), // se il primo e' vero il secondo non viene valutato
 				visit(n.right),
-				"add",
-				"push 0",
-				"beq " + l1,	// entrambi falsi
-
-				"push 1",		// almeno uno dei due era un vero
-				"b "+l2,
+				b(l2),
 
-				l1+":",
-				"push 0",
+				label(l1),
+				push(1),
 
-				l2+":"
+				label(l2)
 		);
 	}
 
 	@Override
-	public String visitNode(NotNode n) throws VoidException {
+	public Code visitNode(NotNode n) throws VoidException {
 		return nlJoin(
 				visit(n.exp),
-				"push -1",
-				"mult",
-				"push 1",
-				"add"
+				push(-1),
+				mult(),
+				push(1),
+				add()
 		);
 	}
 
 	@Override
-	public String visitNode(TimesNode n) {
+	public Code visitNode(TimesNode n) {
 		if (print) printNode(n);
 		return nlJoin(
 			visit(n.left),
 			visit(n.right),
-			"mult"
+			mult()
 		);
 	}
 
 	@Override
-	public String visitNode(DivNode n) throws VoidException {
+	public Code visitNode(DivNode n) throws VoidException {
 		if (print) printNode(n);
 		return nlJoin(
 				visit(n.left),
 				visit(n.right),
-				"div"
+				div()
 		);
 	}
 
 	@Override
-	public String visitNode(PlusNode n) {
+	public Code visitNode(PlusNode n) {
 		if (print) printNode(n);
 		return nlJoin(
 			visit(n.left),
 			visit(n.right),
-			"add"
+			add()
 		);
 	}
 
 	@Override
-	public String visitNode(MinusNode n) throws VoidException {
+	public Code visitNode(MinusNode n) throws VoidException {
 		if (print) printNode(n);
 		return nlJoin(
 				visit(n.left),
 				visit(n.right),
-				"sub"
+				sub()
 		);
 	}
 
 	@Override
-	public String visitNode(CallNode n) {
+	public Code visitNode(CallNode n) {
 		if (print) printNode(n,n.id);
-		String argCode = null, getAR = null;
+		Code argCode = null, getAR = frame(n.nl,n.entry.nl);
 		for (int i=n.arglist.size()-1;i>=0;i--) argCode=nlJoin(argCode,visit(n.arglist.get(i)));
-		for (int i = 0;i<n.nl-n.entry.nl;i++) getAR=nlJoin(getAR,"lw");
+
+		// una funzione dichiarata nel frame corrente lo ha come Access Link: non puo' prenderne il posto
+		if (n == tailPosition && n.entry.type instanceof MethodTypeNode) {
+			return nlJoin(
+					argCode, // generate code for argument expressions in reversed order
+					getAR, // retrieve address of object containing "id" declaration
+					stm(), // set $tm to popped value (with the aim of duplicating top of stack)
+					ltm(), // load Access Link
+					ltm(), // duplicate top of stack
+					lw(), // dispatch pointer
+					push(n.entry.offset), add(), // compute address of "id" in dispatch table
+					lw(), // load address of "id" method
+					tailCall(n.arglist.size())
+			);
+		}
+		if (n == tailPosition && n.nl > n.entry.nl) {
+			return nlJoin(
+					argCode, // generate code for argument expressions in reversed order
+					getAR, // retrieve address of frame containing "id" declaration (Access Link)
+					push(n.entry.label), // address of "id" function, known statically
+					tailCall(n.arglist.size())
+			);
+		}
 
 		if (n.entry.type instanceof MethodTypeNode tt) {
 
 			return nlJoin(
-					"lfp", // load Control Link (pointer to frame of function "id" caller)
+					lfp(), // load Control Link (pointer to frame of function "id" caller)
 					argCode, // generate code for argument expressions in reversed order
-					"lfp", getAR,
-					"stm", // set $tm to popped value (with the aim of duplicating top of stack)
-					"ltm", // load Access Link (pointer to frame of function "id" declaration)
-					"ltm", // duplicate top of stack
-
-					"lw",	// dispatch pointer
+					getAR,
+					stm(), // set $tm to popped value (with the aim of duplicating top of stack)
+					ltm(), // load Access Link (pointer to frame of function "id" declaration)
+					ltm(), // duplicate top of stack
 
-					"push " + n.entry.offset, "add", // compute address of "id" declaration from dispatch table
-					"lw", // load address of "id" function
-					"js"  // jump to popped address (saving address of subsequent instruction in $ra)
+					dispatch(n.entry.offset) // jump to "id" method read from the dispatch table of the popped object
+											 // (saving address of subsequent instruction in $ra)
 			);
 
 		} else {
 			return nlJoin(
-					"lfp", // load Control Link (pointer to frame of function "id" caller)
+					lfp(), // load Control Link (pointer to frame of function "id" caller)
 					argCode, // generate code for argument expressions in reversed order
-					"lfp", getAR, // retrieve address of frame containing "id" declaration
-					// by following the static chain (of Access Links)
-					"stm", // set $tm to popped value (with the aim of duplicating top of stack)
-					"ltm", // load Access Link (pointer to frame of function "id" declaration)
-					"ltm", // duplicate top of stack
-					"push " + n.entry.offset, "add", // compute address of "id" declaration
-					"lw", // load address of "id" function
-					"js"  // jump to popped address (saving address of subsequent instruction in $ra)
+					getAR, // retrieve address of frame containing "id" declaration (Access Link)
+					// (from the display or by following the static chain of Access Links)
+					push(n.entry.label), // address of "id" function, known statically
+					js()  // jump to popped address (saving address of subsequent instruction in $ra)
 			);
 		}
 	}
 
 	@Override
-	public String visitNode(IdNode n) {
+	public Code visitNode(IdNode n) {
 		if (print) printNode(n,n.id);
-		String getAR = null;
-		for (int i = 0;i<n.nl-n.entry.nl;i++) getAR=nlJoin(getAR,"lw");
+		Code getAR = frame(n.nl,n.entry.nl);
 		return nlJoin(
-			"lfp", getAR, // retrieve address of frame containing "id" declaration
-			              // by following the static chain (of Access Links)
-			"push "+n.entry.offset, "add", // compute address of "id" declaration
-			"lw" // load value of "id" variable
+			getAR, // retrieve address of frame containing "id" declaration
+			       // (from the display or by following the static chain of Access Links)
+			push(n.entry.offset), add(), // compute address of "id" declaration
+			lw() // load value of "id" variable
 		);
 	}
 
 	@Override
-	public String visitNode(BoolNode n) {
+	public Code visitNode(BoolNode n) {
 		if (print) printNode(n,n.val.toString());
-		return "push "+(n.val?1:0);
+		return push(n.val?1:0);
 	}
 
 	@Override
-	public String visitNode(IntNode n) {
+	public Code visitNode(IntNode n) {
 		if (print) printNode(n,n.val.toString());
-		return "push "+n.val;
+		return push(n.val);
 	}
 
 	// OBJECT-ORIENTED EXTENSION
 
 
 	@Override
-	public String visitNode(ClassNode n) throws VoidException {
+	public Code visitNode(ClassNode n) throws VoidException {
 		if (print) printNode(n,n.id);
 
 		var dTable = new ArrayList<String>();
@@ -328,59 +444,59 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 			}
 		}
 
-		String dTableHeap = null;
+		Code dTableHeap = null;
 		for (var label : dTable) {
 			dTableHeap= nlJoin(
 					dTableHeap,
 
 					// memorizzo la label in posizione hp
-					"push " + label,
-					"lhp",
-					"sw",
+					push(label),
+					lhp(),
+					sw(),
 
 					// incremento hp
-					"lhp",
-					"push 1",
-					"add",
-					"shp"
+					lhp(),
+					push(1),
+					add(),
+					shp()
 				);
 		}
 
 		return nlJoin(
-				"lhp", // lascio il dispatch pointer sullo stack
+				lhp(), // lascio il dispatch pointer sullo stack
 				dTableHeap
 		);
 	}
 
 	@Override
-	public String visitNode(MethodNode n) throws VoidException {
+	public Code visitNode(MethodNode n) throws VoidException {
 		if (print) printNode(n,n.id);
-		String declCode = null, popDecl = null, popParl = null;
+		Code declCode = null, popDecl = null, popParl = null;
 		for (Node dec : n.declist) {
 			declCode = nlJoin(declCode,visit(dec));
-			popDecl = nlJoin(popDecl,"pop");
+			if (!(dec instanceof FunNode)) popDecl = nlJoin(popDecl,pop());
 		}
-		for (int i=0;i<n.parlist.size();i++) popParl = nlJoin(popParl,"pop");
+		for (int i=0;i<n.parlist.size();i++) popParl = nlJoin(popParl,pop());
 		String funl = freshFunLabel();
 
 		n.label = funl;
 
 		putCode(
 				nlJoin(
-						funl+":",
-						"cfp", // set $fp to $sp value
-						"lra", // load $ra value
+						label(funl),
+						cfp(), // set $fp to $sp value
+						lra(), // load $ra value
 						declCode, // generate code for local declarations (they use the new $fp!!!)
-						visit(n.exp), // generate code for function body expression
-						"stm", // set $tm to popped value (function result)
+						visitBody(n.exp,n.parlist.size(),declWords(n.declist)), // generate code for method body expression
+						stm(), // set $tm to popped value (function result)
 						popDecl, // remove local declarations from stack
-						"sra", // set $ra to popped value
-						"pop", // remove Access Link from stack
+						sra(), // set $ra to popped value
+						pop(), // remove Access Link from stack
 						popParl, // remove parameters from stack
-						"sfp", // set $fp to popped value (Control Link)
-						"ltm", // load $tm value (function result)
-						"lra", // load $ra value
-						"js"  // jump to to popped address
+						sfp(), // set $fp to popped value (Control Link)
+						ltm(), // load $tm value (function result)
+						lra(), // load $ra value
+						js()  // jump to to popped address
 				)
 		);
 
@@ -388,78 +504,62 @@ public class CodeGenerationASTVisitor extends BaseASTVisitor<String, VoidExcepti
 	}
 
 	@Override
-	public String visitNode(ClassCallNode n) throws VoidException {
+	public Code visitNode(ClassCallNode n) throws VoidException {
 		if (print) printNode(n,n.id);
-		String argCode = null, getAR = null;
+		Code argCode = null, getAR = frame(n.nl,n.entry.nl);
 		for (int i=n.arglist.size()-1;i>=0;i--) argCode=nlJoin(argCode,visit(n.arglist.get(i)));
-		for (int i = 0;i<n.nl-n.entry.nl;i++) getAR=nlJoin(getAR,"lw");
+		if (n == tailPosition) {
+			return nlJoin(
+					argCode, // generate code for argument expressions in reversed order
+					getAR, push(n.entry.offset), add(),
+					lw(), // load value of "id1" variable
+					stm(), ltm(), ltm(), // duplicate object pointer (Access Link)
+					lw(), // load dispatch pointer
+					push(n.methodEntry.offset), add(), // compute address of "id2" in dispatch table
+					lw(), // load address of "id2" method
+					tailCall(n.arglist.size())
+			);
+		}
 		return nlJoin(
-				"lfp", // load Control Link (pointer to frame of method "id" caller)
+				lfp(), // load Control Link (pointer to frame of method "id" caller)
 				argCode, // generate code for argument expressions in reversed order
-				"lfp", getAR, 					// retrieve address of frame containing "id1" declaration
-												// by following the static chain (of Access Links)
+				getAR, 					// retrieve address of frame containing "id1" declaration
+										// (from the display or by following the static chain of Access Links)
 
-				"push "+n.entry.offset, "add", 	// compute address of "id1" declaration
-				"lw", 							// load value of "id1" variable
+				push(n.entry.offset), add(), 	// compute address of "id1" declaration
+				lw(), 							// load value of "id1" variable
 
-				"stm", // set $tm to popped value (with the aim of duplicating top of stack)
-				"ltm", // load Access Link (pointer to frame of "id1" declaration)
-				"ltm", // duplicate top of stack
+				stm(), // set $tm to popped value (with the aim of duplicating top of stack)
+				ltm(), // load Access Link (pointer to frame of "id1" declaration)
+				ltm(), // duplicate top of stack
 
-				"lw", // load object pointer
-
-				"push "+n.methodEntry.offset, "add", // compute address of "id2" in dispatch table
-				"lw", // load dispatch pointer
-				"js"  // jump to popped address (saving address of subsequent instruction in $ra)
+				dispatch(n.methodEntry.offset) // jump to "id2" method read from the dispatch table of the popped object
+											   // (saving address of subsequent instruction in $ra)
 		);
 	}
 
 	@Override
-	public String visitNode(NewNode n) throws VoidException {
+	public Code visitNode(NewNode n) throws VoidException {
 		if (print) printNode(n,n.id);
 
-		String argCode = null, moveArgOnHeap = null;
-		for (int i=0; i < n.arglist.size(); i++) {
-			argCode = nlJoin(argCode, visit(n.arglist.get(i)));
-
-			moveArgOnHeap = nlJoin(
-					moveArgOnHeap,
-					"lhp",	// mette hp sullo stack
-					"sw",			// carica arg in posizione hp
+		Code argCode = null;
+		for (int i=0; i < n.arglist.size(); i++) argCode = nlJoin(argCode, visit(n.arglist.get(i)));
 
-					// incremento hp
-					"lhp",
-					"push 1",
-					"add",
-					"shp"
-			);
-		}
+		// i dispatch table sono scritti nell'heap, a partire dall'indirizzo 0, prima di ogni
+		// altra allocazione: il loro indirizzo non dipende dalla dimensione della memoria
+		int dispatchPointer = 0;
+		for (int i = 0; i < -n.entry.offset - 2; i++) dispatchPointer += dispatchTables.get(i).size();
 
 		return nlJoin(
-				// 1. copia gli argomenti nell'heap
-				argCode,
-				moveArgOnHeap,
-
-				// 2. scrive dispatch pointer
-				"push " + (ExecuteVM.MEMSIZE + n.entry.offset),
-				"lw",		// dispatch pointer su stack
-				"lhp",
-				"sw",
-
-				// 3. hp su stack
-				"lhp",
-
-				// inc hp
-				"lhp",
-				"push 1",
-				"add",
-				"shp"
+				argCode, // campi, l'ultimo in cima allo stack
+				push(dispatchPointer), // dispatch pointer su stack
+				newObject(n.arglist.size()) // alloca l'oggetto nell'heap e ne lascia il puntatore sullo stack
 		);
 	}
 
 	@Override
-	public String visitNode(EmptyNode n) throws VoidException {
+	public Code visitNode(EmptyNode n) throws VoidException {
 		if (print) printNode(n);
-		return "push -1";
+		return push(-1);
 	}
 }
\ No newline at end of file
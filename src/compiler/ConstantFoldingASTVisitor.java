@@ -0,0 +1,287 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.lib.*;
+import compiler.exc.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+//visitNode(n) ottimizza il Node n (gia' arricchito e controllato nei tipi) e ritorna il nodo
+//che lo sostituisce nell'albero:
+//- le sottoespressioni con operandi costanti (IntNode/BoolNode) diventano la costante calcolata
+//- un if con condizione costante diventa il solo ramo che verrebbe eseguito
+//- gli elementi neutri (x+0, x*1, true&&x, ...) spariscono
+//
+//I nodi sono immutabili: chi ha un figlio cambiato viene ricreato copiando le informazioni
+//aggiunte dalle fasi precedenti (STentry, nesting level, tipi, label), cosi' la
+//generazione del codice lo tratta come l'originale. I calcoli seguono la semantica della SVM
+//(interi a 32 bit, booleani come 0/1, && e || valutano il secondo operando solo se serve), e
+//un'espressione che verrebbe valutata viene scartata solo se non ha effetti (non stampa e non
+//chiama funzioni): una divisione per la costante 0 resta a tempo di esecuzione
+public class ConstantFoldingASTVisitor extends BaseASTVisitor<Node,VoidException> {
+
+	ConstantFoldingASTVisitor() {}
+	ConstantFoldingASTVisitor(boolean debug) { super(false,debug); } // enables print for debugging
+
+	// valore di una costante intera o booleana (null se il nodo non e' costante)
+	private static Integer value(Node n) {
+		if (n instanceof IntNode i) return i.val;
+		if (n instanceof BoolNode b) return b.val ? 1 : 0;
+		return null;
+	}
+
+	// un nodo la cui valutazione non ha effetti, quindi puo' essere scartato
+	static boolean pure(Node n) {
+		return n instanceof IntNode || n instanceof BoolNode || n instanceof IdNode || n instanceof EmptyNode;
+	}
+
+	// il nuovo nodo prende la linea di quello che sostituisce
+	private static <T extends Node> T at(T node, Node n) {
+		node.setLine(n.getLine());
+		return node;
+	}
+
+	private List<Node> visitList(List<Node> list) {
+		List<Node> result = new ArrayList<>();
+		for (Node n : list) result.add(visit(n));
+		return result;
+	}
+
+	private List<DecNode> visitDecs(List<DecNode> list) {
+		List<DecNode> result = new ArrayList<>();
+		for (DecNode dec : list) result.add((DecNode) visit(dec));
+		return result;
+	}
+
+	@Override
+	public Node visitNode(ProgLetInNode n) {
+		if (print) printNode(n);
+		return at(new ProgLetInNode(visitDecs(n.declist), visit(n.exp)), n);
+	}
+
+	@Override
+	public Node visitNode(ProgNode n) {
+		if (print) printNode(n);
+		return at(new ProgNode(visit(n.exp)), n);
+	}
+
+	@Override
+	public Node visitNode(FunNode n) {
+		if (print) printNode(n,n.id);
+		FunNode fun = at(new FunNode(n.id, n.retType, n.parlist, visitDecs(n.declist), visit(n.exp)), n);
+		fun.setType(n.getType());
+		fun.label = n.label;
+		return fun;
+	}
+
+	@Override
+	public Node visitNode(ParNode n) {
+		if (print) printNode(n,n.id);
+		return n;
+	}
+
+	@Override
+	public Node visitNode(VarNode n) {
+		if (print) printNode(n,n.id);
+		return at(new VarNode(n.id, n.getType(), visit(n.exp)), n);
+	}
+
+	@Override
+	public Node visitNode(PrintNode n) {
+		if (print) printNode(n);
+		return at(new PrintNode(visit(n.exp)), n);
+	}
+
+	@Override
+	public Node visitNode(IfNode n) {
+		if (print) printNode(n);
+		Node cond = visit(n.cond);
+		Integer c = value(cond);
+		if (c != null) return visit(c == 1 ? n.th : n.el); // il ramo morto non viene generato
+		return at(new IfNode(cond, visit(n.th), visit(n.el)), n);
+	}
+
+	@Override
+	public Node visitNode(EqualNode n) {
+		if (print) printNode(n);
+		Node l = visit(n.left), r = visit(n.right);
+		Integer a = value(l), b = value(r);
+		if (a != null && b != null) return at(new BoolNode(a.equals(b)), n);
+		if (l instanceof EmptyNode && r instanceof EmptyNode) return at(new BoolNode(true), n);
+		return at(new EqualNode(l, r), n);
+	}
+
+	@Override
+	public Node visitNode(GreaterEqualNode n) {
+		if (print) printNode(n);
+		Node l = visit(n.left), r = visit(n.right);
+		Integer a = value(l), b = value(r);
+		if (a != null && b != null) return at(new BoolNode(a >= b), n);
+		return at(new GreaterEqualNode(l, r), n);
+	}
+
+	@Override
+	public Node visitNode(LessEqualNode n) {
+		if (print) printNode(n);
+		Node l = visit(n.left), r = visit(n.right);
+		Integer a = value(l), b = value(r);
+		if (a != null && b != null) return at(new BoolNode(a <= b), n);
+		return at(new LessEqualNode(l, r), n);
+	}
+
+	@Override
+	public Node visitNode(TimesNode n) {
+		if (print) printNode(n);
+		Node l = visit(n.left), r = visit(n.right);
+		Integer a = value(l), b = value(r);
+		if (a != null && b != null) return at(new IntNode(a * b), n);
+		if (a != null && a == 1) return r;
+		if (b != null && b == 1) return l;
+		if (a != null && a == 0 && pure(r)) return l;
+		if (b != null && b == 0 && pure(l)) return r;
+		return at(new TimesNode(l, r), n);
+	}
+
+	@Override
+	public Node visitNode(DivNode n) {
+		if (print) printNode(n);
+		Node l = visit(n.left), r = visit(n.right);
+		Integer a = value(l), b = value(r);
+		if (a != null && b != null && b != 0) return at(new IntNode(a / b), n);
+		if (b != null && b == 1) return l;
+		return at(new DivNode(l, r), n);
+	}
+
+	@Override
+	public Node visitNode(PlusNode n) {
+		if (print) printNode(n);
+		Node l = visit(n.left), r = visit(n.right);
+		Integer a = value(l), b = value(r);
+		if (a != null && b != null) return at(new IntNode(a + b), n);
+		if (a != null && a == 0) return r;
+		if (b != null && b == 0) return l;
+		return at(new PlusNode(l, r), n);
+	}
+
+	@Override
+	public Node visitNode(MinusNode n) {
+		if (print) printNode(n);
+		Node l = visit(n.left), r = visit(n.right);
+		Integer a = value(l), b = value(r);
+		if (a != null && b != null) return at(new IntNode(a - b), n);
+		if (b != null && b == 0) return l;
+		return at(new MinusNode(l, r), n);
+	}
+
+	@Override
+	public Node visitNode(AndNode n) {
+		if (print) printNode(n);
+		Node l = visit(n.left), r = visit(n.right);
+		Integer a = value(l), b = value(r);
+		if (a != null && b != null) return at(new BoolNode(a * b != 0), n);
+		if (a != null && a == 1) return r;
+		if (b != null && b == 1) return l;
+		if (a != null && a == 0) return l; // il secondo operando non verrebbe valutato
+		if (b != null && b == 0 && pure(l)) return r;
+		return at(new AndNode(l, r), n);
+	}
+
+	@Override
+	public Node visitNode(OrNode n) {
+		if (print) printNode(n);
+		Node l = visit(n.left), r = visit(n.right);
+		Integer a = value(l), b = value(r);
+		if (a != null && b != null) return at(new BoolNode(a + b != 0), n);
+		if (a != null && a == 0) return r;
+		if (b != null && b == 0) return l;
+		if (a != null && a == 1) return l; // il secondo operando non verrebbe valutato
+		if (b != null && b == 1 && pure(l)) return r;
+		return at(new OrNode(l, r), n);
+	}
+
+	@Override
+	public Node visitNode(NotNode n) {
+		if (print) printNode(n);
+		Node e = visit(n.exp);
+		Integer a = value(e);
+		if (a != null) return at(new BoolNode(a == 0), n);
+		if (e instanceof NotNode not) return not.exp; // !!x = x
+		return at(new NotNode(e), n);
+	}
+
+	@Override
+	public Node visitNode(CallNode n) {
+		if (print) printNode(n,n.id);
+		CallNode call = at(new CallNode(n.id, visitList(n.arglist)), n);
+		call.entry = n.entry;
+		call.nl = n.nl;
+		return call;
+	}
+
+	@Override
+	public Node visitNode(IdNode n) {
+		if (print) printNode(n,n.id);
+		return n;
+	}
+
+	@Override
+	public Node visitNode(BoolNode n) {
+		if (print) printNode(n,n.val.toString());
+		return n;
+	}
+
+	@Override
+	public Node visitNode(IntNode n) {
+		if (print) printNode(n,n.val.toString());
+		return n;
+	}
+
+	// OBJECT-ORIENTED EXTENSION
+
+	@Override
+	public Node visitNode(ClassNode n) {
+		if (print) printNode(n,n.id);
+		List<MethodNode> methods = new ArrayList<>();
+		for (MethodNode method : n.methodsList) methods.add((MethodNode) visit(method));
+		ClassNode c = at(new ClassNode(n.id, n.fieldsList, methods, n.superID), n);
+		c.setType(n.getType());
+		c.superEntry = n.superEntry;
+		return c;
+	}
+
+	@Override
+	public Node visitNode(MethodNode n) {
+		if (print) printNode(n,n.id);
+		MethodNode method = at(new MethodNode(n.id, n.retType, n.parlist, visitDecs(n.declist), visit(n.exp)), n);
+		method.setType(n.getType());
+		method.offset = n.offset;
+		method.label = n.label;
+		return method;
+	}
+
+	@Override
+	public Node visitNode(ClassCallNode n) {
+		if (print) printNode(n,n.id);
+		ClassCallNode call = at(new ClassCallNode(n.id, n.methodId, visitList(n.arglist)), n);
+		call.entry = n.entry;
+		call.methodEntry = n.methodEntry;
+		call.nl = n.nl;
+		return call;
+	}
+
+	@Override
+	public Node visitNode(NewNode n) {
+		if (print) printNode(n,n.id);
+		NewNode node = at(new NewNode(n.id, visitList(n.arglist)), n);
+		node.entry = n.entry;
+		node.nl = n.nl;
+		return node;
+	}
+
+	@Override
+	public Node visitNode(EmptyNode n) {
+		if (print) printNode(n);
+		return n;
+	}
+}
@@ -0,0 +1,238 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.lib.*;
+import compiler.exc.*;
+
+//sceglie, per il corpo di ogni funzione, i frame esterni da raggiungere tramite un display nel
+//suo frame invece che risalendo la catena statica (vedi CodeGenerationASTVisitor.frame), e ne
+//registra il nesting level: riempie FunNode.nl e FunNode.display. Lavora sull'albero gia'
+//ottimizzato, appena prima della generazione del codice, quindi conta gli usi che resteranno
+//nel codice (anche quelli portati nel corpo da una funzione espansa)
+//
+//Conta gli accessi del corpo a ogni livello due o piu' sopra (variabili, chiamate e chiamate di
+//metodo su oggetti); di un if solo quelli certi, cioe' del ramo che ne ha meno. Il display per un
+//livello conviene se costa meno della catena statica in ogni esecuzione del corpo, in istruzioni
+//decodificate (DecodedCode): l'accesso dal display e' un solo LOADFPOFF, quindi ogni uso risparmia
+//hops lw, contro l'inizializzazione (lfp e hops lw) e il pop finale
+public class DisplayASTVisitor extends BaseASTVisitor<Void,VoidException> {
+
+	private int nestingLevel = 0;
+	private int[] outerUses; // usi nel corpo della funzione corrente dei frame a ogni nesting level (null fuori dai corpi)
+
+	DisplayASTVisitor() {}
+	DisplayASTVisitor(boolean debug) { super(false,debug); } // enables print for debugging
+
+	// un uso di entry dal corpo di una funzione, due o piu' livelli sopra
+	private void outerUse(STentry entry) {
+		if (outerUses != null && entry.nl <= nestingLevel-2) outerUses[entry.nl]++;
+	}
+
+	@Override
+	public Void visitNode(ProgLetInNode n) {
+		if (print) printNode(n);
+		for (Node dec : n.declist) visit(dec);
+		visit(n.exp);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(ProgNode n) {
+		if (print) printNode(n);
+		visit(n.exp);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(FunNode n) {
+		if (print) printNode(n,n.id);
+		nestingLevel++;
+		int[] prevOuterUses = outerUses;
+		outerUses = null; // le dichiarazioni locali seguono la catena statica
+		for (Node dec : n.declist) visit(dec);
+		outerUses = new int[nestingLevel];
+		visit(n.exp);
+		n.nl = nestingLevel;
+		n.display.clear();
+		for (int level = nestingLevel-2; level >= 0; level--) {
+			int hops = nestingLevel-level;
+			if (outerUses[level]*hops > hops+2) n.display.add(level);
+		}
+		outerUses = prevOuterUses;
+		nestingLevel--;
+		return null;
+	}
+
+	@Override
+	public Void visitNode(VarNode n) {
+		if (print) printNode(n,n.id);
+		visit(n.exp);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(PrintNode n) {
+		if (print) printNode(n);
+		visit(n.exp);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(IfNode n) {
+		if (print) printNode(n);
+		visit(n.cond);
+		int[] beforeTh = outerUses == null ? null : outerUses.clone();
+		visit(n.th);
+		if (beforeTh == null) {
+			visit(n.el);
+			return null;
+		}
+		int[] afterTh = outerUses;
+		outerUses = beforeTh;
+		visit(n.el);
+		for (int level = 0; level < outerUses.length; level++) // usi certi: quelli del ramo che ne ha meno
+			outerUses[level] = Math.min(outerUses[level], afterTh[level]);
+		return null;
+	}
+
+	private Void binary(Node left, Node right) {
+		visit(left);
+		visit(right);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(EqualNode n) {
+		if (print) printNode(n);
+		return binary(n.left, n.right);
+	}
+
+	@Override
+	public Void visitNode(GreaterEqualNode n) {
+		if (print) printNode(n);
+		return binary(n.left, n.right);
+	}
+
+	@Override
+	public Void visitNode(LessEqualNode n) {
+		if (print) printNode(n);
+		return binary(n.left, n.right);
+	}
+
+	@Override
+	public Void visitNode(TimesNode n) {
+		if (print) printNode(n);
+		return binary(n.left, n.right);
+	}
+
+	@Override
+	public Void visitNode(DivNode n) {
+		if (print) printNode(n);
+		return binary(n.left, n.right);
+	}
+
+	@Override
+	public Void visitNode(PlusNode n) {
+		if (print) printNode(n);
+		return binary(n.left, n.right);
+	}
+
+	@Override
+	public Void visitNode(MinusNode n) {
+		if (print) printNode(n);
+		return binary(n.left, n.right);
+	}
+
+	// il secondo operando di && e || non e' sempre valutato, ma qui conta come quelli
+	// delle altre operazioni (come prima della valutazione a corto circuito)
+	@Override
+	public Void visitNode(AndNode n) {
+		if (print) printNode(n);
+		return binary(n.left, n.right);
+	}
+
+	@Override
+	public Void visitNode(OrNode n) {
+		if (print) printNode(n);
+		return binary(n.left, n.right);
+	}
+
+	@Override
+	public Void visitNode(NotNode n) {
+		if (print) printNode(n);
+		visit(n.exp);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(CallNode n) {
+		if (print) printNode(n,n.id);
+		outerUse(n.entry);
+		for (Node arg : n.arglist) visit(arg);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(IdNode n) {
+		if (print) printNode(n,n.id);
+		outerUse(n.entry);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(BoolNode n) {
+		if (print) printNode(n,n.val.toString());
+		return null;
+	}
+
+	@Override
+	public Void visitNode(IntNode n) {
+		if (print) printNode(n,n.val.toString());
+		return null;
+	}
+
+	// OBJECT-ORIENTED EXTENSION
+
+	@Override
+	public Void visitNode(ClassNode n) {
+		if (print) printNode(n,n.id);
+		nestingLevel++;
+		for (MethodNode method : n.methodsList) visit(method);
+		nestingLevel--;
+		return null;
+	}
+
+	@Override
+	public Void visitNode(MethodNode n) {
+		if (print) printNode(n,n.id);
+		nestingLevel++;
+		int[] prevOuterUses = outerUses;
+		outerUses = null; // i metodi seguono la catena statica
+		for (Node dec : n.declist) visit(dec);
+		visit(n.exp);
+		outerUses = prevOuterUses;
+		nestingLevel--;
+		return null;
+	}
+
+	@Override
+	public Void visitNode(ClassCallNode n) {
+		if (print) printNode(n,n.id);
+		outerUse(n.entry);
+		for (Node arg : n.arglist) visit(arg);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(NewNode n) {
+		if (print) printNode(n,n.id);
+		for (Node arg : n.arglist) visit(arg);
+		return null;
+	}
+
+	@Override
+	public Void visitNode(EmptyNode n) {
+		if (print) printNode(n);
+		return null;
+	}
+}
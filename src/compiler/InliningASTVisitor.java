@@ -0,0 +1,148 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.lib.*;
+import compiler.exc.*;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//come ConstantFoldingASTVisitor, e in piu' sostituisce le chiamate a funzioni piccole e non
+//ricorsive con il loro corpo (gia' ottimizzato), in cui i parametri sono rimpiazzati dagli
+//argomenti della chiamata; il risultato viene di nuovo semplificato (es. f(3) con argomento costante)
+//
+//Una funzione e' espandibile se non ha dichiarazioni locali (niente frame da allocare), il corpo
+//ha al piu' MAX_SIZE nodi e non chiama se stessa. Senza dichiarazioni locali il corpo non contiene
+//altre funzioni, quindi tutti i suoi usi (IdNode, CallNode, ...) sono al nesting level del corpo:
+//spostati nel chiamante prendono il suo nesting level e risalgono dal suo frame, tramite le STentry,
+//agli stessi frame esterni visti dalla funzione (che e' dichiarata in uno di questi)
+//
+//FOOL valuta gli argomenti prima del corpo e non ha assegnamenti: un argomento puo' prendere il
+//posto del parametro se e' una costante o una variabile, oppure se non ha effetti (niente stampe,
+//chiamate o divisioni) e il parametro compare al piu' una volta; altrimenti la chiamata resta
+public class InliningASTVisitor extends ConstantFoldingASTVisitor {
+
+	private static final int MAX_SIZE = 12;
+
+	private Map<String, FunNode> functions = new HashMap<>(); // funzioni senza dichiarazioni locali, per label
+
+	InliningASTVisitor() {}
+	InliningASTVisitor(boolean debug) { super(debug); } // enables print for debugging
+
+	// espressione senza effetti, che puo' essere spostata o non valutata
+	private static boolean effectFree(Node n) {
+		if (n instanceof PlusNode e) return effectFree(e.left) && effectFree(e.right);
+		if (n instanceof MinusNode e) return effectFree(e.left) && effectFree(e.right);
+		if (n instanceof TimesNode e) return effectFree(e.left) && effectFree(e.right);
+		if (n instanceof EqualNode e) return effectFree(e.left) && effectFree(e.right);
+		if (n instanceof GreaterEqualNode e) return effectFree(e.left) && effectFree(e.right);
+		if (n instanceof LessEqualNode e) return effectFree(e.left) && effectFree(e.right);
+		if (n instanceof AndNode e) return effectFree(e.left) && effectFree(e.right);
+		if (n instanceof OrNode e) return effectFree(e.left) && effectFree(e.right);
+		if (n instanceof NotNode e) return effectFree(e.exp);
+		if (n instanceof IfNode e) return effectFree(e.cond) && effectFree(e.th) && effectFree(e.el);
+		return pure(n);
+	}
+
+	@Override
+	public Node visitNode(FunNode n) {
+		FunNode fun = (FunNode) super.visitNode(n);
+		if (fun.declist.isEmpty()) functions.put(fun.label, fun);
+		return fun;
+	}
+
+	@Override
+	public Node visitNode(CallNode n) {
+		CallNode call = (CallNode) super.visitNode(n);
+		FunNode fun = call.entry.label == null ? null : functions.get(call.entry.label);
+		if (fun == null) return call;
+		Substitution s = new Substitution(fun, call.entry.nl+1, call.arglist, call.nl);
+		Node body = s.visit(fun.exp);
+		if (s.rejected || s.size > MAX_SIZE) return call;
+		for (int i = 0; i < call.arglist.size(); i++) {
+			Node arg = call.arglist.get(i);
+			if (!pure(arg) && !(effectFree(arg) && s.uses[i] <= 1)) return call;
+		}
+		return body;
+	}
+
+	// copia (semplificata) del corpo di fun portata al nesting level nl del chiamante,
+	// con i parametri sostituiti dagli argomenti; conta i nodi del corpo e gli usi dei parametri
+	private static class Substitution extends ConstantFoldingASTVisitor {
+
+		private final FunNode fun;
+		private final int bodyNl; // nesting level del corpo di fun (uno sopra la sua dichiarazione)
+		private final List<Node> args;
+		private final int nl;
+		final int[] uses;
+		int size;
+		boolean rejected; // chiamata ricorsiva, o metodo chiamato su un parametro che non e' una variabile
+
+		Substitution(FunNode f, int b, List<Node> a, int n) {
+			fun = f;
+			bodyNl = b;
+			args = a;
+			nl = n;
+			uses = new int[a.size()];
+		}
+
+		@Override
+		public Node visit(Visitable v, String mark) {
+			size++;
+			return super.visit(v, mark);
+		}
+
+		// parametro della funzione (offset da 1 in su)
+		private boolean param(STentry entry) {
+			return entry.nl == bodyNl && entry.offset > 0;
+		}
+
+		@Override
+		public Node visitNode(IdNode n) {
+			if (param(n.entry)) {
+				uses[n.entry.offset-1]++;
+				return args.get(n.entry.offset-1);
+			}
+			IdNode id = new IdNode(n.id);
+			id.setLine(n.getLine());
+			id.entry = n.entry;
+			id.nl = nl;
+			return id;
+		}
+
+		@Override
+		public Node visitNode(CallNode n) {
+			if (fun.label.equals(n.entry.label)) rejected = true;
+			CallNode call = (CallNode) super.visitNode(n);
+			call.nl = nl;
+			return call;
+		}
+
+		@Override
+		public Node visitNode(ClassCallNode n) {
+			ClassCallNode call = (ClassCallNode) super.visitNode(n);
+			call.nl = nl;
+			if (!param(n.entry)) return call;
+			// l'oggetto e' un parametro: la chiamata si sposta sulla variabile passata come argomento
+			uses[n.entry.offset-1]++;
+			if (!(args.get(n.entry.offset-1) instanceof IdNode id)) {
+				rejected = true;
+				return call;
+			}
+			ClassCallNode moved = new ClassCallNode(id.id, n.methodId, call.arglist);
+			moved.setLine(n.getLine());
+			moved.entry = id.entry;
+			moved.methodEntry = n.methodEntry;
+			moved.nl = id.nl;
+			return moved;
+		}
+
+		@Override
+		public Node visitNode(NewNode n) {
+			NewNode node = (NewNode) super.visitNode(n);
+			node.nl = nl;
+			return node;
+		}
+	}
+}
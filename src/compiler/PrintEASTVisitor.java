@@ -195,7 +195,8 @@ public class PrintEASTVisitor extends BaseEASTVisitor<Void,VoidException> {
 		printSTentry("nestlev "+entry.nl);
 		printSTentry("type");
 		visit(entry.type);
-		printSTentry("offset "+entry.offset);
+		if (entry.label != null) printSTentry("label "+entry.label);
+		else printSTentry("offset "+entry.offset);
 		return null;
 	}
 
@@ -0,0 +1,471 @@
+package compiler;
+
+import compiler.AST.*;
+import compiler.lib.*;
+import compiler.exc.*;
+import svm.RegisterCode;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static compiler.lib.FOOLlib.*;
+import static svm.RegisterCode.*;
+
+//generazione di codice per svm.RegisterVM, alternativa a CodeGenerationASTVisitor: la visita di
+//un'espressione aggiunge il suo codice a quello corrente e restituisce il registro (offset nel frame)
+//che ne contiene il valore. Una variabile del frame corrente e' gia' un registro e non viene copiata,
+//gli altri valori vanno in temporanei allocati sotto le dichiarazioni locali, a pila: ogni espressione
+//riusa dal proprio primo temporaneo in giu' quelli dei suoi operandi, e il frame ne riserva il massimo
+//
+//Il frame e le chiamate (Access Link, argomenti, Control Link, dispatch table) sono quelli della SVM
+//a stack, quindi offset e nesting level delle STentry si usano cosi' come sono; l'ordine di valutazione
+//degli argomenti e degli operandi e' lo stesso, per avere le stesse stampe
+public class RegisterCodeGenerationASTVisitor extends BaseASTVisitor<Integer, VoidException> {
+
+	private List<List<String>> dispatchTables = new ArrayList<>();
+	private RegisterCode functionCode; // codice di funzioni e metodi, dopo il programma principale
+
+	// frame in generazione: codice, prossimo temporaneo libero e offset piu' basso usato
+	private RegisterCode code;
+	private int next, min;
+
+	// chiamate in coda (come in CodeGenerationASTVisitor), con il numero di parametri del frame corrente
+	private Node tailPosition;
+	private int tailParams;
+
+	RegisterCodeGenerationASTVisitor() {}
+	RegisterCodeGenerationASTVisitor(boolean debug) {super(false,debug);} //enables print for debugging
+
+	// codice completo del programma
+	public RegisterCode generate(Node ast) {
+		code = null;
+		functionCode = null;
+		visit(ast);
+		return join(code, functionCode);
+	}
+
+	private void emit(RegisterCode... c) {
+		code = join(code, join(c));
+	}
+
+	private int temp() {
+		int t = next--;
+		if (t < min) min = t;
+		return t;
+	}
+
+	// inizia un frame con le dichiarazioni locali in r-2, r-3, ...; restituisce lo stato da ripristinare
+	private int[] openFrame(List<DecNode> declist) {
+		int[] saved = {next, min};
+		min = -1 - declWords(declist);
+		next = min - 1;
+		return saved;
+	}
+
+	private static int declWords(List<DecNode> declist) {
+		int words = 0;
+		for (Node dec : declist) if (!(dec instanceof FunNode)) words++;
+		return words;
+	}
+
+	// dichiarazioni locali, ciascuna nel suo registro
+	private void declarations(List<DecNode> declist) {
+		int slot = -2;
+		for (Node dec : declist) {
+			if (dec instanceof FunNode) {
+				visit(dec);
+				continue;
+			}
+			int mark = next;
+			int r = visit(dec);
+			if (r != slot) emit(mov(slot, r));
+			next = mark;
+			slot--;
+		}
+	}
+
+	// corpo di funzione o metodo, in posizione di coda
+	private void function(String label, int params, List<DecNode> declist, Node exp) {
+		RegisterCode outerCode = code;
+		Node outerTail = tailPosition;
+		int outerParams = tailParams;
+		int[] saved = openFrame(declist);
+		code = null;
+		declarations(declist);
+		tailPosition = exp;
+		tailParams = params;
+		int v = visit(exp);
+		functionCode = join(functionCode,
+			label(label),
+			enter(params, -min), // parametri e parole del frame sotto $fp (dichiarazioni e temporanei)
+			code,
+			ret(v, params)
+		);
+		code = outerCode;
+		tailPosition = outerTail;
+		tailParams = outerParams;
+		next = saved[0];
+		min = saved[1];
+	}
+
+	// registro con l'indirizzo del frame (o dell'oggetto) di nesting level declNl visto da codice di
+	// livello nl, risalendo la catena statica: $fp stesso (in into), l'Access Link r0, o una lw in into
+	private int frame(int nl, int declNl, int into) {
+		if (nl == declNl) {
+			emit(mfp(into));
+			return into;
+		}
+		int base = 0;
+		for (int i = 1; i < nl - declNl; i++) {
+			emit(lw(into, base, 0));
+			base = into;
+		}
+		return base;
+	}
+
+	// valore della dichiarazione entry, vista da codice di livello nl, in into (se non e' nel frame corrente)
+	private int load(STentry entry, int nl, int into) {
+		if (nl == entry.nl) return entry.offset;
+		emit(lw(into, frame(nl, entry.nl, into), entry.offset));
+		return into;
+	}
+
+	// blocco di registri di una chiamata: Access Link in rb, argomenti in rb-1 ... rb-p,
+	// valutati dall'ultimo al primo
+	private int arguments(List<Node> arglist) {
+		int rb = temp();
+		for (int i = 0; i < arglist.size(); i++) temp();
+		int free = next;
+		for (int i = arglist.size()-1; i >= 0; i--) {
+			int r = visit(arglist.get(i));
+			if (r != rb-1-i) emit(mov(rb-1-i, r));
+			next = free;
+		}
+		return rb;
+	}
+
+	@Override
+	public Integer visitNode(ProgLetInNode n) {
+		if (print) printNode(n);
+		openFrame(n.declist);
+		declarations(n.declist);
+		int v = visit(n.exp);
+		code = join(enter(0, -min), code, halt());
+		return v;
+	}
+
+	@Override
+	public Integer visitNode(ProgNode n) {
+		if (print) printNode(n);
+		openFrame(List.of());
+		int v = visit(n.exp);
+		code = join(enter(0, -min), code, halt());
+		return v;
+	}
+
+	@Override
+	public Integer visitNode(FunNode n) {
+		if (print) printNode(n,n.id);
+		function(n.label, n.parlist.size(), n.declist, n.exp);
+		return null; // chiamata direttamente alla sua label: non occupa posto nel frame
+	}
+
+	@Override
+	public Integer visitNode(VarNode n) {
+		if (print) printNode(n,n.id);
+		return visit(n.exp);
+	}
+
+	@Override
+	public Integer visitNode(PrintNode n) {
+		if (print) printNode(n);
+		int v = visit(n.exp);
+		emit(print(v));
+		return v;
+	}
+
+	@Override
+	public Integer visitNode(IfNode n) {
+		if (print) printNode(n);
+		String l1 = freshLabel();
+		String l2 = freshLabel();
+		boolean tail = n == tailPosition;
+		int t = temp();
+		jumpIf(n.cond, true, l1);
+		if (tail) tailPosition = n.el;
+		int el = visit(n.el);
+		emit(mov(t, el), b(l2), label(l1));
+		next = t - 1;
+		if (tail) tailPosition = n.th;
+		int th = visit(n.th);
+		emit(mov(t, th), label(l2));
+		next = t - 1;
+		return t;
+	}
+
+	// salto a label se la condizione n vale when, altrimenti prosegue (come in CodeGenerationASTVisitor);
+	// i confronti diventano un solo salto condizionato tra i registri degli operandi
+	private void jumpIf(Node n, boolean when, String label) {
+		int mark = next;
+		if (n instanceof BoolNode c) {
+			if (c.val == when) emit(b(label));
+		} else if (n instanceof NotNode not) {
+			jumpIf(not.exp, !when, label);
+		} else if (n instanceof AndNode and) {
+			String skip = freshLabel();
+			if (when) {
+				jumpIf(and.left, false, skip);
+				jumpIf(and.right, true, label);
+				emit(label(skip));
+			} else {
+				jumpIf(and.left, false, label);
+				jumpIf(and.right, false, label);
+			}
+		} else if (n instanceof OrNode or) {
+			String skip = freshLabel();
+			if (when) {
+				jumpIf(or.left, true, label);
+				jumpIf(or.right, true, label);
+			} else {
+				jumpIf(or.left, true, skip);
+				jumpIf(or.right, false, label);
+				emit(label(skip));
+			}
+		} else if (n instanceof EqualNode eq) {
+			int l = visit(eq.left), r = visit(eq.right);
+			emit(when ? beq(l, r, label) : bne(l, r, label));
+		} else if (n instanceof LessEqualNode le) {
+			int l = visit(le.left), r = visit(le.right);
+			emit(when ? ble(l, r, label) : bgt(l, r, label));
+		} else if (n instanceof GreaterEqualNode ge) {
+			int r = visit(ge.right), l = visit(ge.left);
+			emit(when ? ble(r, l, label) : bgt(r, l, label));
+		} else {
+			int v = visit(n), zero = temp();
+			emit(li(zero, 0), when ? bne(v, zero, label) : beq(v, zero, label));
+		}
+		next = mark;
+	}
+
+	// operazione a tre indirizzi sui valori di due operandi, valutati nell'ordine dato
+	private interface Op { RegisterCode make(int rd, int ra, int rb); }
+
+	private int binary(Node first, Node second, Op op) {
+		int mark = next;
+		int a = visit(first), b = visit(second);
+		next = mark;
+		int t = temp();
+		emit(op.make(t, a, b));
+		return t;
+	}
+
+	// x + k e x - k con k costante: un solo addi
+	private int addImmediate(Node left, int k) {
+		int mark = next;
+		int a = visit(left);
+		next = mark;
+		int t = temp();
+		emit(addi(t, a, k));
+		return t;
+	}
+
+	@Override
+	public Integer visitNode(EqualNode n) {
+		if (print) printNode(n);
+		return binary(n.left, n.right, RegisterCode::seq);
+	}
+
+	@Override
+	public Integer visitNode(GreaterEqualNode n) {
+		if (print) printNode(n);
+		return binary(n.right, n.left, RegisterCode::sle); // right <= left
+	}
+
+	@Override
+	public Integer visitNode(LessEqualNode n) {
+		if (print) printNode(n);
+		return binary(n.left, n.right, RegisterCode::sle);
+	}
+
+	@Override
+	public Integer visitNode(AndNode n) {
+		if (print) printNode(n);
+		String l1 = freshLabel();
+		String l2 = freshLabel();
+		int t = temp();
+		jumpIf(n.left, false, l1); // se il primo e' falso il secondo non viene valutato
+		int r = visit(n.right);
+		emit(mov(t, r), b(l2), label(l1), li(t, 0), label(l2));
+		next = t - 1;
+		return t;
+	}
+
+	@Override
+	public Integer visitNode(OrNode n) {
+		if (print) printNode(n);
+		String l1 = freshLabel();
+		String l2 = freshLabel();
+		int t = temp();
+		jumpIf(n.left, true, l1); // se il primo e' vero il secondo non viene valutato
+		int r = visit(n.right);
+		emit(mov(t, r), b(l2), label(l1), li(t, 1), label(l2));
+		next = t - 1;
+		return t;
+	}
+
+	@Override
+	public Integer visitNode(NotNode n) {
+		if (print) printNode(n);
+		int mark = next;
+		int v = visit(n.exp);
+		next = mark;
+		int t = temp();
+		emit(not(t, v));
+		return t;
+	}
+
+	@Override
+	public Integer visitNode(TimesNode n) {
+		if (print) printNode(n);
+		return binary(n.left, n.right, RegisterCode::mul);
+	}
+
+	@Override
+	public Integer visitNode(DivNode n) {
+		if (print) printNode(n);
+		return binary(n.left, n.right, RegisterCode::div);
+	}
+
+	@Override
+	public Integer visitNode(PlusNode n) {
+		if (print) printNode(n);
+		if (n.right instanceof IntNode k) return addImmediate(n.left, k.val);
+		return binary(n.left, n.right, RegisterCode::add);
+	}
+
+	@Override
+	public Integer visitNode(MinusNode n) {
+		if (print) printNode(n);
+		if (n.right instanceof IntNode k && k.val != Integer.MIN_VALUE) return addImmediate(n.left, -k.val);
+		return binary(n.left, n.right, RegisterCode::sub);
+	}
+
+	@Override
+	public Integer visitNode(CallNode n) {
+		if (print) printNode(n,n.id);
+		int mark = next;
+		int rb = arguments(n.arglist);
+		int al = frame(n.nl, n.entry.nl, rb); // Access Link
+		if (al != rb) emit(mov(rb, al));
+		boolean method = n.entry.type instanceof MethodTypeNode;
+
+		// una funzione dichiarata nel frame corrente lo ha come Access Link: non puo' prenderne il posto
+		if (n == tailPosition && (method || n.nl > n.entry.nl))
+			emit(method ? tcallm(n.entry.offset, rb, tailParams) : tcall(n.entry.label, rb, tailParams));
+		else
+			emit(method ? callm(rb, n.entry.offset, rb) : call(rb, n.entry.label, rb)); // risultato al posto dell'Access Link
+		next = mark;
+		return temp();
+	}
+
+	@Override
+	public Integer visitNode(IdNode n) {
+		if (print) printNode(n,n.id);
+		if (n.nl == n.entry.nl) return n.entry.offset;
+		return load(n.entry, n.nl, temp());
+	}
+
+	@Override
+	public Integer visitNode(BoolNode n) {
+		if (print) printNode(n,n.val.toString());
+		int t = temp();
+		emit(li(t, n.val ? 1 : 0));
+		return t;
+	}
+
+	@Override
+	public Integer visitNode(IntNode n) {
+		if (print) printNode(n,n.val.toString());
+		int t = temp();
+		emit(li(t, n.val));
+		return t;
+	}
+
+	// OBJECT-ORIENTED EXTENSION
+
+	@Override
+	public Integer visitNode(ClassNode n) {
+		if (print) printNode(n,n.id);
+
+		var dTable = new ArrayList<String>();
+		// dispatch pointer: i dispatch table sono scritti nell'heap uno dopo l'altro, dall'indirizzo 0
+		int dispatchPointer = 0;
+		for (var table : dispatchTables) dispatchPointer += table.size();
+		dispatchTables.add(dTable);
+
+		if (n.superEntry != null) dTable.addAll(dispatchTables.get(-n.superEntry.offset -2));
+
+		for (var method : n.methodsList) {
+			visit(method);
+			if (method.offset >= dTable.size()) dTable.add(method.label);
+			else dTable.set(method.offset, method.label);
+		}
+
+		int t = temp();
+		for (var label : dTable) emit(li(t, label), hpush(t));
+		emit(li(t, dispatchPointer)); // il valore della dichiarazione e' il dispatch pointer
+		return t;
+	}
+
+	@Override
+	public Integer visitNode(MethodNode n) {
+		if (print) printNode(n,n.id);
+		n.label = freshFunLabel();
+		function(n.label, n.parlist.size(), n.declist, n.exp);
+		return null;
+	}
+
+	@Override
+	public Integer visitNode(ClassCallNode n) {
+		if (print) printNode(n,n.id);
+		int mark = next;
+		int rb = arguments(n.arglist);
+		int object = load(n.entry, n.nl, rb); // Access Link: l'oggetto su cui e' chiamato il metodo
+		if (object != rb) emit(mov(rb, object));
+		if (n == tailPosition) emit(tcallm(n.methodEntry.offset, rb, tailParams));
+		else emit(callm(rb, n.methodEntry.offset, rb));
+		next = mark;
+		return temp();
+	}
+
+	@Override
+	public Integer visitNode(NewNode n) {
+		if (print) printNode(n,n.id);
+		int mark = next;
+		int rb = next, fields = n.arglist.size();
+		for (int i = 0; i <= fields; i++) temp(); // campi in rb ... rb-n+1, dispatch pointer in rb-n
+		int free = next;
+		for (int i = 0; i < fields; i++) {
+			int r = visit(n.arglist.get(i));
+			if (r != rb-i) emit(mov(rb-i, r));
+			next = free;
+		}
+
+		// i dispatch table sono scritti nell'heap, a partire dall'indirizzo 0, prima di ogni
+		// altra allocazione: il loro indirizzo non dipende dalla dimensione della memoria
+		int dispatchPointer = 0;
+		for (int i = 0; i < -n.entry.offset - 2; i++) dispatchPointer += dispatchTables.get(i).size();
+
+		emit(li(rb-fields, dispatchPointer), newObject(rb, rb, fields));
+		next = mark;
+		return temp();
+	}
+
+	@Override
+	public Integer visitNode(EmptyNode n) {
+		if (print) printNode(n);
+		int t = temp();
+		emit(li(t, -1));
+		return t;
+	}
+}
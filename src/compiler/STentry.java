@@ -6,7 +6,9 @@ public class STentry implements Visitable {
 	final int nl;
 	final TypeNode type;
 	final int offset;
-	public STentry(int n, TypeNode t, int o) { nl = n; type = t; offset=o; }
+	final String label; // label del codice, per le funzioni (chiamate direttamente)
+	public STentry(int n, TypeNode t, int o) { nl = n; type = t; offset=o; label = null; }
+	public STentry(int n, TypeNode t, String l) { nl = n; type = t; offset = 0; label = l; }
 
 	@Override
 	public <S,E extends Exception> S accept(BaseASTVisitor<S,E> visitor) throws E {
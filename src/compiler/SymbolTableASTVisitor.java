@@ -48,7 +48,9 @@ public class SymbolTableASTVisitor extends BaseASTVisitor<Void,VoidException> {
 		Map<String, STentry> hm = symTable.get(nestingLevel);
 		List<TypeNode> parTypes = new ArrayList<>();  
 		for (ParNode par : n.parlist) parTypes.add(par.getType());
-		STentry entry = new STentry(nestingLevel, new ArrowTypeNode(parTypes,n.retType),decOffset--);
+		n.label = FOOLlib.freshFunLabel();
+		// nessun offset: la funzione e' chiamata direttamente alla sua label, non occupa posto nel frame
+		STentry entry = new STentry(nestingLevel, new ArrowTypeNode(parTypes,n.retType),n.label);
 		//inserimento di ID nella symtable
 		if (hm.put(n.id, entry) != null) {
 			System.out.println("Fun id " + n.id + " at line "+ n.getLine() +" already declared");
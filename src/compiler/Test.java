@@ -10,7 +10,9 @@ import svm.*;
 public class Test {
     public static void main(String[] args) throws Exception {
    			
-    	String fileName = "test/prova.fool";
+    	// java compiler.Test [file.fool [register]]: "register" compiles for the register machine (svm.RegisterVM)
+    	String fileName = args.length > 0 ? args[0] : "test/prova.fool";
+    	boolean registerBackend = args.length > 1 && args[1].equals("register");
 
     	CharStream chars = CharStreams.fromFileName(fileName);
     	FOOLLexer lexer = new FOOLLexer(chars);
@@ -54,28 +56,48 @@ public class Test {
 
 		if ( frontEndErrors > 0) System.exit(1);
 
-    	System.out.println("Generating code.");
-    	String code = new CodeGenerationASTVisitor().visit(ast);
-    	BufferedWriter out = new BufferedWriter(new FileWriter(fileName+".asm"));
-    	out.write(code);
-    	out.close();
+    	System.out.println("Optimizing AST.");
+    	ast = new InliningASTVisitor().visit(ast); // inlines small functions, folds constants and dead if branches
+    	         // (new ConstantFoldingASTVisitor().visit(ast) only folds constants)
     	System.out.println("");
 
-    	System.out.println("Assembling generated code.");
-    	CharStream charsASM = CharStreams.fromFileName(fileName+".asm");
-    	SVMLexer lexerASM = new SVMLexer(charsASM);
-    	CommonTokenStream tokensASM = new CommonTokenStream(lexerASM);
-    	SVMParser parserASM = new SVMParser(tokensASM);
+    	if (registerBackend) {
+    		System.out.println("Generating code for the Register Virtual Machine.");
+    		RegisterCode rcode = new RegisterCodeGenerationASTVisitor().generate(ast);
+    		System.out.println("");
+
+    		System.out.println("Running generated code via Register Virtual Machine.");
+    		new RegisterVM(rcode.link()).run(); // (rcode.toString() gives the code as text)
+    		return;
+    	}
+
+    	System.out.println("Generating code.");
+    	Code code = new CodeGenerationASTVisitor().visit(ast);
+    	code = Peephole.optimize(code); // rewrites redundant instruction sequences (labels and jumps are kept safe)
+    	boolean asmDump = false; // use true to also write the code as text in fileName.asm (svm.Run executes it)
+    	if (asmDump) {
+    		BufferedWriter out = new BufferedWriter(new FileWriter(fileName+".asm"));
+    		out.write(code.toString());
+    		out.close();
+    	}
+    	System.out.println("");
 
-    	parserASM.assembly();
+    	System.out.println("Linking generated code.");
+    	ObjectFile object = code.link(fileName); // labels resolved directly, no assembly text
+    	System.out.println("");
 
-    	// needed only for debug
-    	System.out.println("You had: "+lexerASM.lexicalErrors+" lexical errors and "+parserASM.getNumberOfSyntaxErrors()+" syntax errors.\n");
-    	if (lexerASM.lexicalErrors+parserASM.getNumberOfSyntaxErrors()>0) System.exit(1);
+    	boolean objectDump = false; // use true to also write the binary object file fileName.svmo
+    	if (objectDump) object.write(java.nio.file.Path.of(fileName+".svmo")); // svm.Run executes it again without compiling
 
     	System.out.println("Running generated code via Stack Virtual Machine.");
-    	ExecuteVM vm = new ExecuteVM(parserASM.code);
-    	vm.cpu();
+    	ExecuteVM vm = object.createVM(); // object.createVM(memSize) sets the memory size
+    	         // (new ExecuteVM(object.code, BufferMemory.direct(memSize)) keeps the memory off-heap)
+    	         // (vm.setOutput(...) redirects print: StreamOutput, ChannelOutput.open(file), CaptureOutput)
+    	         // (vm.enableProfiling(object.labels, System.err) reports the cost of each function at halt)
+    	         // (vm.enableTrace(size) keeps the last instructions, dumped if the program crashes)
+    	vm.cpu(); // use vm.cpuDecoded() to run on the pre-decoded code,
+    	         // vm.cpuCached() to also keep the top of stack in a register
+    	         // (call vm.enableJit(threshold) before vm.cpuDecoded() to compile hot functions)
 
     }
 }
@@ -0,0 +1,385 @@
+package compiler;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.regex.*;
+import org.antlr.v4.runtime.*;
+import org.antlr.v4.runtime.tree.*;
+import compiler.lib.*;
+import compiler.exc.*;
+import svm.*;
+
+// programmi di test con l'output atteso: compila ogni .fool della directory (test/ di default)
+// che dichiara in un commento cio' che deve stampare, es. "/* expected output: 1 2 3 */",
+// lo esegue con ogni modalita' della SVM e sulla macchina a registri (svm.RegisterVM, "reg")
+// e confronta le stampe con quelle attese. Controlla
+// anche che il testo del codice (come con asmDump) riassemblato da svm.Assembler e da
+// SVMParser dia le stesse parole e label del link diretto, e che il file oggetto (come con
+// objectDump) le conservi
+public class TestAll {
+
+	private static final int MEMSIZE = 2_000_000; // abbastanza per i test di ricorsione profonda
+
+	private static final Pattern EXPECTED = Pattern.compile("/\\*\\s*expected output:(.*?)\\*/", Pattern.DOTALL);
+
+	private static final String[] ENGINES = {"cpu", "cpuDecoded", "cpuCached", "jit", "reg"};
+
+	public static void main(String[] args) throws Exception {
+
+		Path dir = Path.of(args.length > 0 ? args[0] : "test");
+		List<Path> files = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir, "*.fool")) {
+			for (Path f : stream) files.add(f);
+		}
+		Collections.sort(files);
+
+		int failures = 0, programs = 0;
+		for (Path f : files) {
+			Matcher m = EXPECTED.matcher(Files.readString(f, StandardCharsets.ISO_8859_1));
+			if (!m.find()) continue;
+			programs++;
+			String expected = String.join(" ", m.group(1).trim().split("\\s+"));
+			Node ast = compile(f.toString());
+			if (ast == null) {
+				System.out.println(f.getFileName()+": FAIL (front-end errors)");
+				failures++;
+				continue;
+			}
+			Code code = Peephole.optimize(new CodeGenerationASTVisitor().visit(ast));
+			ObjectFile object = code.link(f.toString());
+			int[] registerCode = new RegisterCodeGenerationASTVisitor().generate(ast).link();
+			boolean assembled = assembles(code, object);
+			if (!assembled) failures++;
+			boolean reloaded = reloads(object);
+			if (!reloaded) failures++;
+			StringBuilder line = new StringBuilder(f.getFileName()+": asm="+(assembled ? "OK" : "FAIL")+" obj="+(reloaded ? "OK" : "FAIL"));
+			for (String engine : ENGINES) {
+				String output = engine.equals("reg") ? run(registerCode, MEMSIZE) : run(object, engine, MEMSIZE);
+				boolean ok = output.equals(expected);
+				if (!ok) failures++;
+				line.append(" ").append(engine).append(ok ? "=OK" : "=FAIL ["+output+"]");
+			}
+			System.out.println(line);
+		}
+		failures += check("deeprec in small memory", () -> outOfMemory(dir.resolve("deeprec.fool")));
+		failures += check("gcloop in slices of 1000 instructions", () -> slices(dir.resolve("gcloop.fool"), 1000));
+		for (String name : new String[] {"quicksort.fool", "gcloop.fool"})
+			failures += check(name+" restored from a snapshot", () -> snapshot(dir.resolve(name)));
+		failures += check("BatchRunner with shared JIT code", () -> batch(dir, "quicksort.fool", "fib.fool", "objs.fool", "gcloop.fool"));
+		for (String name : new String[] {"quicksort.fool", "tail.fool", "objs.fool", "gcloop.fool"})
+			failures += check(name+" profile totals", () -> profile(dir.resolve(name)));
+		failures += check("nullcall.fool trace dump", () -> trace(dir.resolve("nullcall.fool"), 8));
+		failures += check("gcloop.fool on BufferMemory", () -> bufferMemory(dir.resolve("gcloop.fool")));
+		failures += check("quicksort.fool through StreamOutput and ChannelOutput", () -> textOutput(dir.resolve("quicksort.fool")));
+		failures += check("memory sizes above 2^30 words rejected", TestAll::memorySize);
+		System.out.println(programs+" programs, "+failures+" failures.");
+		if (failures > 0) System.exit(1);
+	}
+
+	// stesse fasi di Test fino all'albero ottimizzato, senza stampe intermedie; null se ci sono errori di front-end
+	private static Node compile(String fileName) throws IOException {
+		CharStream chars = CharStreams.fromFileName(fileName);
+		FOOLLexer lexer = new FOOLLexer(chars);
+		FOOLParser parser = new FOOLParser(new CommonTokenStream(lexer));
+		ParseTree st = parser.prog();
+		Node ast = new ASTGenerationSTVisitor().visit(st);
+		SymbolTableASTVisitor symtableVisitor = new SymbolTableASTVisitor();
+		symtableVisitor.visit(ast);
+		int typeErrors = FOOLlib.typeErrors;
+		try {
+			new TypeCheckEASTVisitor().visit(ast);
+		} catch (IncomplException | TypeException e) {
+			if (FOOLlib.typeErrors == typeErrors) FOOLlib.typeErrors++;
+		}
+		if (lexer.lexicalErrors+parser.getNumberOfSyntaxErrors()+symtableVisitor.stErrors+FOOLlib.typeErrors-typeErrors > 0)
+			return null;
+		return new InliningASTVisitor().visit(ast);
+	}
+
+	private static boolean assembles(Code code, ObjectFile object) {
+		String text = code.toString();
+		Assembler assembler = new Assembler(text.getBytes(StandardCharsets.ISO_8859_1));
+		assembler.assemble();
+		SVMParser parser = new SVMParser(new CommonTokenStream(new SVMLexer(CharStreams.fromString(text))));
+		parser.assembly();
+		int n = object.codeSize;
+		return assembler.errors == 0 && parser.getNumberOfSyntaxErrors() == 0 && assembler.codeSize() == n
+			&& Arrays.equals(assembler.code(), 0, n, object.code, 0, n) && Arrays.equals(parser.code, 0, n, object.code, 0, n)
+			&& assembler.labels().equals(object.labels) && parser.labels().equals(object.labels);
+	}
+
+	// il file oggetto scritto e riletto ha le stesse parole di codice, label ed entry point
+	private static boolean reloads(ObjectFile object) throws IOException {
+		Path file = Files.createTempFile("testall", ".svmo");
+		try {
+			object.write(file);
+			ObjectFile loaded = ObjectFile.load(file);
+			int n = object.codeSize;
+			return loaded.codeSize == n && loaded.entry == object.entry && loaded.source.equals(object.source)
+				&& Arrays.equals(loaded.code, 0, n, object.code, 0, n) && loaded.labels.equals(object.labels);
+		} finally {
+			Files.delete(file);
+		}
+	}
+
+	// stampe del programma (separate da spazi) eseguito con la modalita' data, o nome dell'eccezione
+	private static String run(ObjectFile object, String engine, int memSize) {
+		ExecuteVM vm = new ExecuteVM(object.code, memSize);
+		CaptureOutput output = new CaptureOutput();
+		vm.setOutput(output);
+		try {
+			switch (engine) {
+				case "cpu" -> vm.cpu();
+				case "cpuDecoded" -> vm.cpuDecoded();
+				case "cpuCached" -> vm.cpuCached();
+				case "jit" -> { vm.enableJit(1); vm.cpuDecoded(); }
+			}
+		} catch (RuntimeException | StackOverflowError e) {
+			return e.getClass().getSimpleName();
+		}
+		return printed(output);
+	}
+
+	// stampe catturate, separate da spazi
+	private static String printed(CaptureOutput output) {
+		return output.toString().trim().replaceAll("\\s+", " ");
+	}
+
+	// CONTROLLI
+
+	private interface Check {
+		boolean run() throws Exception;
+	}
+
+	// esegue un controllo e ne stampa l'esito; 1 se fallisce
+	private static int check(String name, Check c) {
+		boolean ok;
+		try {
+			ok = c.run();
+		} catch (Exception e) {
+			System.out.println(name+": FAIL ["+e+"]");
+			return 1;
+		}
+		System.out.println(name+": "+(ok ? "OK" : "FAIL"));
+		return ok ? 0 : 1;
+	}
+
+	// codice ottimizzato e linkato di un programma senza errori
+	private static ObjectFile object(Path file) throws IOException {
+		return Peephole.optimize(new CodeGenerationASTVisitor().visit(compile(file.toString()))).link(file.toString());
+	}
+
+	// eseguito a fette di budget istruzioni, il programma stampa le stesse cose ed esegue
+	// lo stesso numero di istruzioni che con un solo cpu() senza limite
+	private static boolean slices(Path file, long budget) throws IOException {
+		ObjectFile object = object(file);
+		ExecuteVM whole = new ExecuteVM(object.code, MEMSIZE);
+		CaptureOutput wholeOutput = new CaptureOutput();
+		whole.setOutput(wholeOutput);
+		whole.cpu();
+		ExecuteVM sliced = new ExecuteVM(object.code, MEMSIZE);
+		CaptureOutput slicedOutput = new CaptureOutput();
+		sliced.setOutput(slicedOutput);
+		int calls = 1;
+		while (!sliced.cpu(budget)) calls++;
+		return calls > 1 && slicedOutput.toString().equals(wholeOutput.toString())
+			&& sliced.getInstructionCount() == whole.getInstructionCount();
+	}
+
+	// fermato a meta' con cpu(budget), salvato e ripreso da una nuova VM con restore, il programma
+	// stampa nel complesso le stesse cose di un'esecuzione senza interruzioni
+	private static boolean snapshot(Path file) throws IOException {
+		ObjectFile object = object(file);
+		ExecuteVM whole = new ExecuteVM(object.code, MEMSIZE);
+		CaptureOutput wholeOutput = new CaptureOutput();
+		whole.setOutput(wholeOutput);
+		whole.cpu();
+		ExecuteVM first = new ExecuteVM(object.code, MEMSIZE);
+		CaptureOutput output = new CaptureOutput();
+		first.setOutput(output);
+		if (first.cpu(whole.getInstructionCount()/2)) return false;
+		Path image = Files.createTempFile("testall", ".snapshot");
+		try {
+			first.snapshot(image);
+			ExecuteVM restored = ExecuteVM.restore(object.code, image);
+			restored.setOutput(output);
+			restored.cpu();
+		} finally {
+			Files.delete(image);
+		}
+		return output.toString().equals(wholeOutput.toString());
+	}
+
+	// piu' esecuzioni concorrenti di ogni programma (con lo stesso DecodedCode e quindi le stesse
+	// funzioni compilate dal JIT) stampano quello che stampa un'esecuzione da sola
+	private static boolean batch(Path dir, String... names) throws Exception {
+		List<DecodedCode> programs = new ArrayList<>();
+		List<String> expected = new ArrayList<>();
+		for (String name : names) {
+			ObjectFile object = object(dir.resolve(name));
+			DecodedCode decoded = new DecodedCode(object.code);
+			String serial = run(object, "cpuDecoded", MEMSIZE);
+			for (int k = 0; k < 4; k++) {
+				programs.add(decoded);
+				expected.add(serial);
+			}
+		}
+		List<BatchRunner.Result> results;
+		try (BatchRunner runner = new BatchRunner(4, MEMSIZE, 1)) {
+			results = runner.runAll(programs);
+		}
+		for (int k = 0; k < results.size(); k++) {
+			BatchRunner.Result r = results.get(k);
+			if (r.error != null || !printed(r.output).equals(expected.get(k))) return false;
+		}
+		return true;
+	}
+
+	// il profilo di cpu() conta tutte le istruzioni eseguite: il totale del report, la somma del
+	// costo proprio delle funzioni e quella dei conteggi per opcode sono getInstructionCount()
+	private static boolean profile(Path file) throws IOException {
+		ObjectFile object = object(file);
+		ExecuteVM vm = new ExecuteVM(object.code, MEMSIZE);
+		vm.setOutput(new CaptureOutput());
+		ByteArrayOutputStream report = new ByteArrayOutputStream();
+		vm.enableProfiling(object.labels, new PrintStream(report, true, StandardCharsets.ISO_8859_1));
+		vm.cpu();
+		long count = vm.getInstructionCount();
+		String[] lines = report.toString(StandardCharsets.ISO_8859_1).split("\\R");
+		if (!lines[0].equals("Profile: "+count+" instructions")) return false;
+		long self = 0, opcodes = 0;
+		int k = 3; // dopo la riga vuota e l'intestazione delle funzioni
+		for (; !lines[k].isEmpty(); k++) self += Long.parseLong(lines[k].trim().split("\\s+")[2]);
+		for (k += 2; k < lines.length; k++) opcodes += Long.parseLong(lines[k].trim().split("\\s+")[1]);
+		return self == count && opcodes == count;
+	}
+
+	// una chiamata di metodo su null ferma cpu() con un errore: la traccia scritta su System.err
+	// e quella di dumpTrace contengono le ultime size istruzioni, fino al lw dall'indirizzo null
+	private static boolean trace(Path file, int size) throws IOException {
+		ObjectFile object = object(file);
+		ExecuteVM vm = new ExecuteVM(object.code, MEMSIZE);
+		vm.setOutput(new CaptureOutput());
+		vm.enableTrace(size);
+		ByteArrayOutputStream err = new ByteArrayOutputStream();
+		PrintStream systemErr = System.err;
+		System.setErr(new PrintStream(err, true, StandardCharsets.ISO_8859_1));
+		try {
+			vm.cpu();
+			return false;
+		} catch (RuntimeException e) {
+			// errore atteso
+		} finally {
+			System.setErr(systemErr);
+		}
+		ByteArrayOutputStream dump = new ByteArrayOutputStream();
+		vm.dumpTrace(new PrintStream(dump, true, StandardCharsets.ISO_8859_1));
+		String text = dump.toString(StandardCharsets.ISO_8859_1);
+		String[] lines = text.split("\\R");
+		long count = vm.getInstructionCount();
+		return text.equals(err.toString(StandardCharsets.ISO_8859_1)) && lines.length == size+2
+			&& lines[0].equals("Last "+size+" of "+count+" instructions:") && lines[size+1].trim().split("\\s+")[1].equals("lw");
+	}
+
+	// su memoria fuori dall'heap Java (buffer diretto e file mappato) il programma stampa ed
+	// esegue le stesse istruzioni che su ArrayMemory
+	private static boolean bufferMemory(Path file) throws IOException {
+		ObjectFile object = object(file);
+		ExecuteVM array = new ExecuteVM(object.code, new ArrayMemory(MEMSIZE));
+		CaptureOutput expected = new CaptureOutput();
+		array.setOutput(expected);
+		array.cpu();
+		Path image = Files.createTempFile("testall", ".mem");
+		try {
+			for (Memory memory : new Memory[] {BufferMemory.direct(MEMSIZE), BufferMemory.mapped(image, MEMSIZE)}) {
+				ExecuteVM vm = new ExecuteVM(object.code, memory);
+				CaptureOutput output = new CaptureOutput();
+				vm.setOutput(output);
+				vm.cpu();
+				if (!output.toString().equals(expected.toString()) || vm.getInstructionCount() != array.getInstructionCount())
+					return false;
+			}
+		} finally {
+			Files.delete(image);
+		}
+		return true;
+	}
+
+	// le print scritte su uno stream e su un file (con buffer piccoli, svuotati anche prima dell'halt)
+	// sono lo stesso testo di CaptureOutput.toString()
+	private static boolean textOutput(Path file) throws IOException {
+		ObjectFile object = object(file);
+		ExecuteVM captured = new ExecuteVM(object.code, MEMSIZE);
+		CaptureOutput expected = new CaptureOutput();
+		captured.setOutput(expected);
+		captured.cpu();
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		ExecuteVM vm = new ExecuteVM(object.code, MEMSIZE);
+		vm.setOutput(new StreamOutput(stream, 32));
+		vm.cpu();
+		if (!stream.toString(StandardCharsets.ISO_8859_1).equals(expected.toString())) return false;
+		Path text = Files.createTempFile("testall", ".out");
+		try {
+			vm = new ExecuteVM(object.code, MEMSIZE);
+			try (ChannelOutput output = new ChannelOutput(FileChannel.open(text, StandardOpenOption.WRITE), 32)) {
+				vm.setOutput(output);
+				vm.cpu();
+			}
+			return Files.readString(text, StandardCharsets.ISO_8859_1).equals(expected.toString());
+		} finally {
+			Files.delete(text);
+		}
+	}
+
+	// una memoria di piu' di 2^30 parole e' rifiutata prima di allocarla (gli indirizzi piu'
+	// alti si confonderebbero con gli object pointer)
+	private static boolean memorySize() {
+		int tooBig = (1 << 30) + 1;
+		List<Check> creations = List.of(
+			() -> new ExecuteVM(new int[1], tooBig) != null,
+			() -> new ExecuteVM(new DecodedCode(new int[1]), tooBig) != null,
+			() -> new RegisterVM(new int[1], tooBig) != null,
+			() -> BufferMemory.direct(tooBig) != null);
+		for (Check creation : creations) {
+			try {
+				creation.run();
+				return false;
+			} catch (IllegalArgumentException e) {
+				// rifiutata
+			} catch (Exception e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	// ricorsione profonda in poca memoria: ogni modalita' (anche la macchina a registri)
+	// si ferma con OutOfMemoryException prima di scrivere lo stack nell'heap
+	private static boolean outOfMemory(Path file) throws IOException {
+		Node ast = compile(file.toString());
+		ObjectFile object = Peephole.optimize(new CodeGenerationASTVisitor().visit(ast)).link(file.toString());
+		int[] registerCode = new RegisterCodeGenerationASTVisitor().generate(ast).link();
+		boolean ok = true;
+		for (int memSize : new int[] {3000, 5000}) {
+			for (String engine : ENGINES)
+				ok &= (engine.equals("reg") ? run(registerCode, memSize) : run(object, engine, memSize)).equals("OutOfMemoryException");
+		}
+		return ok;
+	}
+
+	// stampe del programma eseguito dalla macchina a registri
+	private static String run(int[] registerCode, int memSize) {
+		RegisterVM vm = new RegisterVM(registerCode, memSize);
+		CaptureOutput output = new CaptureOutput();
+		vm.setOutput(output);
+		try {
+			vm.run();
+		} catch (RuntimeException | StackOverflowError e) {
+			return e.getClass().getSimpleName();
+		}
+		return printed(output);
+	}
+}
@@ -1,5 +1,7 @@
 package compiler.lib;
 
+import svm.Code;
+
 public class FOOLlib {
 
 	public static String extractNodeName(String s) { // s is in the form compiler.AST$NameNode
@@ -16,13 +18,10 @@ public class FOOLlib {
     
 	public static int typeErrors = 0;
 
-	// crea un'unica stringa a partire da un insieme di stringhe concatenadole e 
-	// introducendo, all'interno, dei newline "\n" come separatore tra le stringhe
-	public static String nlJoin(String... lines) { //argomenti null ignorati 
-		String code = null;
-		for (int i = 0; i<lines.length; i++) 
-			if (lines[i]!=null) code = (code==null?"":code+"\n")+lines[i]; 
-		return code;
+	// concatena frammenti di codice (argomenti null ignorati) in un unico frammento,
+	// senza copiarne le istruzioni (vedi svm.Code)
+	public static Code nlJoin(Code... parts) {
+		return Code.join(parts);
 	}
 
 	private static int labCount = 0;
@@ -37,13 +36,13 @@ public class FOOLlib {
 		return "function"+(funlabCount++);
 	}
 
-	private static String funCode = null;
+	private static Code funCode = null;
 
-	public static void putCode(String c) {
-		funCode = nlJoin(funCode, "", c); //linea vuota di separazione prima di codice funzione
+	public static void putCode(Code c) {
+		funCode = nlJoin(funCode, Code.blankLine(), c); //linea vuota di separazione prima di codice funzione
 	}
 
-	public static String getCode() {
+	public static Code getCode() {
 		return funCode;
 	}
 }
@@ -0,0 +1,27 @@
+package svm;
+
+// memoria nell'heap Java
+public final class ArrayMemory implements Memory {
+
+    private final int[] words;
+
+    public ArrayMemory(int size) {
+      words = new int[size];
+    }
+
+    @Override
+    public int get(int address) {
+      return words[address];
+    }
+
+    @Override
+    public void set(int address, int value) {
+      words[address] = value;
+    }
+
+    @Override
+    public int size() {
+      return words.length;
+    }
+
+}
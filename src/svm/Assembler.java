@@ -0,0 +1,291 @@
+package svm;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+// assembler scritto a mano per la stessa sintassi di SVM.g4 (commenti /* */ compresi):
+// legge il testo una sola volta, senza token ne' boxing, registra i riferimenti in avanti
+// in array di interi (posizione nel codice, label) e li risolve alla fine.
+// Produce le stesse parole di SVMParser, in un buffer di codice che cresce se serve.
+public class Assembler {
+
+    private static final String[] MNEMONICS = { "push", "pop", "add", "sub", "mult", "div", "sw", "lw",
+        "b", "beq", "bleq", "js", "lra", "sra", "ltm", "stm", "lfp", "sfp", "cfp", "lhp", "shp", "new", "print", "halt",
+        "dispatch", "tjs" };
+    private static final int[] OPCODES = { SVMParser.PUSH, SVMParser.POP, SVMParser.ADD, SVMParser.SUB,
+        SVMParser.MULT, SVMParser.DIV, SVMParser.STOREW, SVMParser.LOADW, SVMParser.BRANCH, SVMParser.BRANCHEQ,
+        SVMParser.BRANCHLESSEQ, SVMParser.JS, SVMParser.LOADRA, SVMParser.STORERA, SVMParser.LOADTM,
+        SVMParser.STORETM, SVMParser.LOADFP, SVMParser.STOREFP, SVMParser.COPYFP, SVMParser.LOADHP,
+        SVMParser.STOREHP, SVMParser.NEW, SVMParser.PRINT, SVMParser.HALT, SVMParser.DISPATCH,
+        SVMParser.TJS };
+
+    // tabella hash (indirizzamento aperto) chiave della mnemonica -> opcode
+    private static final long[] MNEMONIC_KEYS = new long[64];
+    private static final int[] MNEMONIC_OPS = new int[64];
+    static {
+      for (int m = 0; m < MNEMONICS.length; m++) {
+        long key = 0;
+        for (char c : MNEMONICS[m].toCharArray()) key = key << 5 | (c - 'a' + 1);
+        int slot = slot(key);
+        while (MNEMONIC_KEYS[slot] != 0) slot = (slot + 1) & 63;
+        MNEMONIC_KEYS[slot] = key;
+        MNEMONIC_OPS[slot] = OPCODES[m];
+      }
+    }
+
+    public int errors = 0;
+
+    private final byte[] in;
+    private int pos = 0;
+    private int line = 1;
+
+    private int[] code = new int[ExecuteVM.CODESIZE];
+    private int size = 0;
+
+    // label per id: nome (come posizione e lunghezza nel testo), hash e indirizzo;
+    // tabella hash (indirizzamento aperto) nome -> id + 1
+    private int[] labelStart = new int[64];
+    private int[] labelLength = new int[64];
+    private int[] labelHash = new int[64];
+    private int[] labelAddress = new int[64];
+    private int labelCount = 0;
+    private int[] table = new int[128];
+
+    // riferimenti da risolvere: code[fixupAt[k]] = indirizzo della label fixupLabel[k]
+    private int[] fixupAt = new int[256];
+    private int[] fixupLabel = new int[256];
+    private int fixupCount = 0;
+
+    public Assembler(byte[] text) {
+      in = text;
+    }
+
+    public static Assembler fromFile(Path file) throws IOException {
+      return new Assembler(Files.readAllBytes(file));
+    }
+
+    public void assemble() {
+      while (skipBlanks()) {
+        int c = in[pos];
+        if (!isLetter(c)) {
+          error("Invalid char: " + (char) c + " at line " + line);
+          pos++;
+          continue;
+        }
+        int start = pos;
+        int length = word();
+        int op = mnemonic(start, length);
+        int wordLine = line;
+        if (op >= 0) {
+          instruction(op);
+        } else if (skipBlanks() && in[pos] == ':') { // definizione di label
+          pos++;
+          int id = label(start, length); // prima: label() puo' riallocare labelAddress
+          labelAddress[id] = size;
+        } else {
+          error("Syntax error at line " + wordLine + ": unexpected " + text(start, length));
+        }
+      }
+      for (int k = 0; k < fixupCount; k++) {
+        int address = labelAddress[fixupLabel[k]];
+        if (address < 0) error("Undefined label " + labelName(fixupLabel[k]));
+        code[fixupAt[k]] = address;
+      }
+    }
+
+    private void instruction(int op) {
+      emit(op);
+      if (op == SVMParser.PUSH) {
+        if (!skipBlanks()) error("Syntax error at line " + line + ": missing push operand");
+        else if (isLetter(in[pos])) labelOperand();
+        else integerOperand();
+      } else if (op == SVMParser.NEW || op == SVMParser.DISPATCH) {
+        integerOperand();
+      } else if (op == SVMParser.BRANCH || op == SVMParser.BRANCHEQ || op == SVMParser.BRANCHLESSEQ) {
+        labelOperand();
+      }
+    }
+
+    private void labelOperand() {
+      if (!skipBlanks() || !isLetter(in[pos])) {
+        error("Syntax error at line " + line + ": label expected");
+        return;
+      }
+      int start = pos;
+      int length = word();
+      if (mnemonic(start, length) >= 0) {
+        error("Syntax error at line " + line + ": label expected");
+        return;
+      }
+      if (fixupCount == fixupAt.length) {
+        fixupAt = Arrays.copyOf(fixupAt, fixupCount * 2);
+        fixupLabel = Arrays.copyOf(fixupLabel, fixupCount * 2);
+      }
+      fixupAt[fixupCount] = size;
+      fixupLabel[fixupCount++] = label(start, length);
+      emit(0);
+    }
+
+    private void integerOperand() {
+      if (!skipBlanks()) {
+        error("Syntax error at line " + line + ": integer expected");
+        return;
+      }
+      boolean negative = in[pos] == '-';
+      int start = negative ? pos + 1 : pos;
+      int end = start;
+      long value = 0;
+      while (end < in.length && isDigit(in[end])) {
+        if (value <= Integer.MAX_VALUE + 1L) value = value * 10 + (in[end] - '0');
+        end++;
+      }
+      if (end == start || (negative ? -value < Integer.MIN_VALUE : value > Integer.MAX_VALUE)) {
+        error("Syntax error at line " + line + ": integer expected");
+        pos = end;
+        return;
+      }
+      pos = end;
+      emit((int) (negative ? -value : value));
+    }
+
+    // salta spazi e commenti; false a fine testo
+    private boolean skipBlanks() {
+      final byte[] in = this.in;
+      int p = pos;
+      while (p < in.length) {
+        int c = in[p];
+        if (c == '\n') {
+          line++;
+          p++;
+        } else if (c == ' ' || c == '\t' || c == '\r') {
+          p++;
+        } else if (c == '/' && p + 1 < in.length && in[p+1] == '*') {
+          int end = p + 2;
+          while (end + 1 < in.length && !(in[end] == '*' && in[end+1] == '/')) {
+            if (in[end] == '\n') line++;
+            end++;
+          }
+          if (end + 1 >= in.length) { // commento non chiuso: come in SVM.g4, '/' e '*' sono caratteri non validi
+            error("Invalid char: / at line " + line);
+            p++;
+            continue;
+          }
+          p = end + 2;
+        } else {
+          pos = p;
+          return true;
+        }
+      }
+      pos = p;
+      return false;
+    }
+
+    private int word() {
+      final byte[] in = this.in;
+      int p = pos;
+      while (p < in.length && (isLetter(in[p]) || isDigit(in[p]))) p++;
+      int length = p - pos;
+      pos = p;
+      return length;
+    }
+
+    // le mnemoniche (al piu' 12 lettere minuscole) sono confrontate come long: 5 bit per lettera
+    private int mnemonic(int start, int length) {
+      if (length > 12) return -1;
+      long key = 0;
+      for (int k = 0; k < length; k++) {
+        int c = in[start+k];
+        if (c < 'a' || c > 'z') return -1;
+        key = key << 5 | (c - 'a' + 1);
+      }
+      for (int slot = slot(key); MNEMONIC_KEYS[slot] != 0; slot = (slot + 1) & 63)
+        if (MNEMONIC_KEYS[slot] == key) return MNEMONIC_OPS[slot];
+      return -1;
+    }
+
+    private static int slot(long key) {
+      return (int) ((key * 0x9E3779B97F4A7C15L) >>> 58);
+    }
+
+    // id della label nel testo [start, start+length), creata se non esiste
+    private int label(int start, int length) {
+      final byte[] in = this.in;
+      int hash = 0;
+      for (int k = 0; k < length; k++) hash = 31 * hash + in[start+k];
+      int mask = table.length - 1;
+      for (int slot = hash & mask; ; slot = (slot + 1) & mask) {
+        int id = table[slot] - 1;
+        if (id < 0) {
+          if (labelCount == labelAddress.length) {
+            labelStart = Arrays.copyOf(labelStart, labelCount * 2);
+            labelLength = Arrays.copyOf(labelLength, labelCount * 2);
+            labelHash = Arrays.copyOf(labelHash, labelCount * 2);
+            labelAddress = Arrays.copyOf(labelAddress, labelCount * 2);
+          }
+          labelStart[labelCount] = start;
+          labelLength[labelCount] = length;
+          labelHash[labelCount] = hash;
+          labelAddress[labelCount] = -1;
+          table[slot] = ++labelCount;
+          if (labelCount * 2 > table.length) rehash();
+          return labelCount - 1;
+        }
+        if (labelHash[id] == hash && labelLength[id] == length
+            && Arrays.equals(in, labelStart[id], labelStart[id] + length, in, start, start + length)) return id;
+      }
+    }
+
+    private void rehash() {
+      table = new int[table.length * 2];
+      int mask = table.length - 1;
+      for (int id = 0; id < labelCount; id++) {
+        int slot = labelHash[id] & mask;
+        while (table[slot] != 0) slot = (slot + 1) & mask;
+        table[slot] = id + 1;
+      }
+    }
+
+    private String labelName(int id) {
+      return text(labelStart[id], labelLength[id]);
+    }
+
+    private void emit(int word) {
+      if (size == code.length) code = Arrays.copyOf(code, size * 2);
+      code[size++] = word;
+    }
+
+    private String text(int start, int length) {
+      return new String(in, start, length, java.nio.charset.StandardCharsets.ISO_8859_1);
+    }
+
+    private void error(String message) {
+      System.out.println(message);
+      errors++;
+    }
+
+    private static boolean isLetter(int c) {
+      return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+    }
+
+    private static boolean isDigit(int c) {
+      return c >= '0' && c <= '9';
+    }
+
+    // codice assemblato (lungo almeno CODESIZE, come SVMParser.code)
+    public int[] code() {
+      return code;
+    }
+
+    public int codeSize() {
+      return size;
+    }
+
+    public Map<String,Integer> labels() {
+      Map<String,Integer> labels = new HashMap<>();
+      for (int id = 0; id < labelCount; id++)
+        if (labelAddress[id] >= 0) labels.put(labelName(id), labelAddress[id]);
+      return labels;
+    }
+
+}
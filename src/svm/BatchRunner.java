@@ -0,0 +1,101 @@
+package svm;
+
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// esecuzione concorrente di molti programmi su un pool di thread limitato: ogni
+// esecuzione ha la sua ExecuteVM (memoria, registri, heap, output), mentre il codice
+// pre-decodificato, immutabile, puo' essere condiviso tra tutte le esecuzioni. Con il JIT
+// le funzioni compilate di un programma sono in una tabella thread-safe del runner,
+// condivisa dalle esecuzioni dello stesso DecodedCode
+public class BatchRunner implements AutoCloseable {
+
+    // esito di un'esecuzione: l'output catturato e l'eventuale errore
+    public static class Result {
+      public final CaptureOutput output;
+      public final RuntimeException error; // null se il programma e' arrivato a halt
+
+      Result(CaptureOutput output, RuntimeException error) {
+        this.output = output;
+        this.error = error;
+      }
+    }
+
+    private final ExecutorService pool;
+    private final int memSize;
+    private final int jitThreshold;
+    // tabella delle funzioni compilate per programma (chiavi deboli: non trattiene il codice)
+    private final Map<DecodedCode, AtomicReferenceArray<JitCompiler.Compiled>> jitCode =
+        Collections.synchronizedMap(new WeakHashMap<>());
+
+    public BatchRunner() {
+      this(Runtime.getRuntime().availableProcessors());
+    }
+
+    public BatchRunner(int threads) {
+      this(threads, ExecuteVM.MEMSIZE, 0);
+    }
+
+    // jitThreshold: 0 per non usare il JIT (vedi ExecuteVM.enableJit)
+    public BatchRunner(int threads, int memSize, int jitThreshold) {
+      pool = Executors.newFixedThreadPool(threads, r -> {
+        Thread t = new Thread(r, "svm-runner");
+        t.setDaemon(true);
+        return t;
+      });
+      this.memSize = memSize;
+      this.jitThreshold = jitThreshold;
+    }
+
+    // le esecuzioni dello stesso programma devono ricevere lo stesso DecodedCode, che ne
+    // condivide il codice decodificato e le funzioni compilate dal JIT
+    public Future<Result> submit(DecodedCode program) {
+      return pool.submit(() -> run(program));
+    }
+
+    // esegue tutti i programmi e restituisce i risultati nello stesso ordine
+    public List<Result> runAll(List<DecodedCode> programs) throws InterruptedException {
+      List<Future<Result>> futures = new ArrayList<>();
+      for (DecodedCode program : programs) futures.add(submit(program));
+      List<Result> results = new ArrayList<>();
+      for (Future<Result> f : futures) {
+        try {
+          results.add(f.get());
+        } catch (ExecutionException e) { // errore della JVM, non del programma (es. StackOverflowError)
+          if (e.getCause() instanceof Error error) throw error;
+          throw new IllegalStateException(e.getCause());
+        }
+      }
+      return results;
+    }
+
+    private Result run(DecodedCode program) {
+      ExecuteVM vm = new ExecuteVM(program, memSize);
+      CaptureOutput output = new CaptureOutput();
+      vm.setOutput(output);
+      if (jitThreshold > 0) {
+        vm.enableJit(jitThreshold);
+        vm.shareJitCode(jitCode.computeIfAbsent(program, p -> new AtomicReferenceArray<>(p.size)));
+      }
+      try {
+        vm.cpuDecoded();
+        return new Result(output, null);
+      } catch (RuntimeException e) {
+        return new Result(output, e);
+      }
+    }
+
+    // attende la fine delle esecuzioni in corso; se il thread viene interrotto smette di
+    // attendere e ripristina il flag di interruzione per il chiamante
+    @Override
+    public void close() {
+      pool.shutdown();
+      try {
+        pool.awaitTermination(Long.MAX_VALUE, TimeUnit.NANOSECONDS);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+
+}
@@ -0,0 +1,52 @@
+package svm;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+
+// memoria fuori dall'heap Java: buffer diretto o file mappato in memoria
+// (nel secondo caso il contenuto resta nel file, utile per l'analisi post-mortem)
+public final class BufferMemory implements Memory {
+
+    private final IntBuffer words;
+    private final MappedByteBuffer mapped;
+
+    BufferMemory(ByteBuffer bytes) {
+      words = bytes.order(ByteOrder.nativeOrder()).asIntBuffer();
+      mapped = (bytes instanceof MappedByteBuffer m) ? m : null;
+    }
+
+    public static BufferMemory direct(int size) {
+      return new BufferMemory(ByteBuffer.allocateDirect(Math.multiplyExact(ExecuteVM.checkMemorySize(size), 4)));
+    }
+
+    public static BufferMemory mapped(Path file, int size) throws IOException {
+      ExecuteVM.checkMemorySize(size);
+      try (FileChannel channel = FileChannel.open(file,
+          StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        return new BufferMemory(channel.map(FileChannel.MapMode.READ_WRITE, 0, Math.multiplyExact(size, 4L)));
+      }
+    }
+
+    @Override
+    public int get(int address) {
+      return words.get(address);
+    }
+
+    @Override
+    public void set(int address, int value) {
+      words.put(address, value);
+    }
+
+    @Override
+    public int size() {
+      return words.capacity();
+    }
+
+    // scrive sul file le modifiche ancora in memoria (solo memoria mappata)
+    public void force() {
+      if (mapped != null) mapped.force();
+    }
+
+}
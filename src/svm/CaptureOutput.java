@@ -0,0 +1,66 @@
+package svm;
+
+import java.util.Arrays;
+
+// output catturato in memoria come sequenza di interi (per chi incorpora la VM e per
+// confrontare esecuzioni); le print a stack vuoto sono registrate a parte
+public class CaptureOutput implements Output {
+
+    private int[] values = new int[64];
+    private boolean[] empty = new boolean[64];
+    private int count;
+
+    @Override
+    public void print(int value) {
+      if (count == values.length) grow();
+      values[count++] = value;
+    }
+
+    @Override
+    public void printEmpty() {
+      if (count == values.length) grow();
+      empty[count++] = true;
+    }
+
+    @Override
+    public void flush() {
+    }
+
+    private void grow() {
+      values = Arrays.copyOf(values, count * 2);
+      empty = Arrays.copyOf(empty, count * 2);
+    }
+
+    public int size() {
+      return count;
+    }
+
+    public int get(int i) {
+      if (i >= count) throw new IndexOutOfBoundsException(i);
+      return values[i];
+    }
+
+    public boolean isEmptyStack(int i) {
+      if (i >= count) throw new IndexOutOfBoundsException(i);
+      return empty[i];
+    }
+
+    public int[] toArray() {
+      return Arrays.copyOf(values, count);
+    }
+
+    public void clear() {
+      Arrays.fill(empty, 0, count, false);
+      count = 0;
+    }
+
+    // lo stesso testo che la print scriverebbe su console
+    @Override
+    public String toString() {
+      StringBuilder s = new StringBuilder();
+      for (int i = 0; i < count; i++)
+        s.append(empty[i] ? "Empty stack!" : Integer.toString(values[i])).append(System.lineSeparator());
+      return s.toString();
+    }
+
+}
@@ -0,0 +1,40 @@
+package svm;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.*;
+
+// output scritto direttamente su un canale (tipicamente un file) da un buffer diretto
+public class ChannelOutput extends TextOutput implements Closeable {
+
+    private final WritableByteChannel channel;
+
+    public ChannelOutput(WritableByteChannel channel) {
+      this(channel, 65536);
+    }
+
+    public ChannelOutput(WritableByteChannel channel, int bufferSize) {
+      super(ByteBuffer.allocateDirect(bufferSize));
+      this.channel = channel;
+    }
+
+    public static ChannelOutput open(Path file) throws IOException {
+      return new ChannelOutput(FileChannel.open(file,
+          StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING));
+    }
+
+    @Override
+    protected void write(ByteBuffer bytes) throws IOException {
+      while (bytes.hasRemaining()) channel.write(bytes);
+    }
+
+    @Override
+    public void close() throws IOException {
+      flush();
+      channel.close();
+    }
+
+}
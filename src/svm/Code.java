@@ -0,0 +1,188 @@
+package svm;
+
+import java.util.*;
+
+// codice SVM prodotto dalla generazione di codice, come istruzioni (opcode, operando
+// intero o label simbolica) invece che come testo. Un frammento composto referenzia
+// i suoi pezzi senza copiarli, quindi concatenare costa O(1); link() lo linearizza una
+// sola volta, risolve le label e produce le parole per ExecuteVM. toString() da' il
+// testo .asm equivalente (ora solo come dump opzionale).
+public final class Code {
+
+    static final int LABEL = -1; // pseudo-istruzione: definizione di label
+    static final int BLANK = -2; // pseudo-istruzione: riga vuota nel dump
+
+    final int op;       // opcode (SVMParser), LABEL, BLANK o 0 per un frammento composto
+    final int arg;      // operando intero
+    final String label; // operando simbolico, o la label definita
+    private final Code[] parts; // pezzi di un frammento composto
+    private final int size;     // parole di codice
+
+    Code(int op, int arg, String label) {
+      this.op = op;
+      this.arg = arg;
+      this.label = label;
+      this.parts = null;
+      this.size = op < 0 ? 0 : hasOperand(op) ? 2 : 1;
+    }
+
+    private Code(Code[] parts, int size) {
+      this.op = 0;
+      this.arg = 0;
+      this.label = null;
+      this.parts = parts;
+      this.size = size;
+    }
+
+    // concatenazione dei frammenti (argomenti null ignorati; null se sono tutti null)
+    public static Code join(Code... parts) {
+      int count = 0, size = 0;
+      Code last = null;
+      for (Code c : parts)
+        if (c != null) {
+          count++;
+          size += c.size;
+          last = c;
+        }
+      if (count <= 1) return last;
+      Code[] nonNull = new Code[count];
+      count = 0;
+      for (Code c : parts) if (c != null) nonNull[count++] = c;
+      return new Code(nonNull, size);
+    }
+
+    public int size() {
+      return size;
+    }
+
+    // ISTRUZIONI
+
+    public static Code push(int n) { return new Code(SVMParser.PUSH, n, null); }
+    public static Code push(String label) { return new Code(SVMParser.PUSH, 0, label); }
+    public static Code pop() { return new Code(SVMParser.POP, 0, null); }
+    public static Code add() { return new Code(SVMParser.ADD, 0, null); }
+    public static Code sub() { return new Code(SVMParser.SUB, 0, null); }
+    public static Code mult() { return new Code(SVMParser.MULT, 0, null); }
+    public static Code div() { return new Code(SVMParser.DIV, 0, null); }
+    public static Code sw() { return new Code(SVMParser.STOREW, 0, null); }
+    public static Code lw() { return new Code(SVMParser.LOADW, 0, null); }
+    public static Code b(String label) { return new Code(SVMParser.BRANCH, 0, label); }
+    public static Code beq(String label) { return new Code(SVMParser.BRANCHEQ, 0, label); }
+    public static Code bleq(String label) { return new Code(SVMParser.BRANCHLESSEQ, 0, label); }
+    public static Code js() { return new Code(SVMParser.JS, 0, null); }
+    public static Code tjs() { return new Code(SVMParser.TJS, 0, null); }
+    public static Code lra() { return new Code(SVMParser.LOADRA, 0, null); }
+    public static Code sra() { return new Code(SVMParser.STORERA, 0, null); }
+    public static Code ltm() { return new Code(SVMParser.LOADTM, 0, null); }
+    public static Code stm() { return new Code(SVMParser.STORETM, 0, null); }
+    public static Code lfp() { return new Code(SVMParser.LOADFP, 0, null); }
+    public static Code sfp() { return new Code(SVMParser.STOREFP, 0, null); }
+    public static Code cfp() { return new Code(SVMParser.COPYFP, 0, null); }
+    public static Code lhp() { return new Code(SVMParser.LOADHP, 0, null); }
+    public static Code shp() { return new Code(SVMParser.STOREHP, 0, null); }
+    public static Code newObject(int n) { return new Code(SVMParser.NEW, n, null); }
+    public static Code dispatch(int offset) { return new Code(SVMParser.DISPATCH, offset, null); }
+    public static Code print() { return new Code(SVMParser.PRINT, 0, null); }
+    public static Code halt() { return new Code(SVMParser.HALT, 0, null); }
+    public static Code label(String label) { return new Code(LABEL, 0, label); }
+    public static Code blankLine() { return new Code(BLANK, 0, null); }
+
+    // LINK
+
+    // parole di codice (lunghe almeno CODESIZE, come SVMParser.code) con le label risolte
+    public ObjectFile link(String source) {
+      List<Code> instructions = flatten();
+      Map<String,Integer> labels = new HashMap<>();
+      int address = 0;
+      for (Code c : instructions) {
+        if (c.op == LABEL && labels.put(c.label, address) != null)
+          throw new IllegalStateException("Label " + c.label + " defined twice");
+        address += c.size;
+      }
+      int[] code = new int[Math.max(size, ExecuteVM.CODESIZE)];
+      int i = 0;
+      for (Code c : instructions) {
+        if (c.op < 0) continue;
+        code[i++] = c.op;
+        if (c.size == 1) continue;
+        if (c.label == null) {
+          code[i++] = c.arg;
+        } else {
+          Integer target = labels.get(c.label);
+          if (target == null) throw new IllegalStateException("Undefined label " + c.label);
+          code[i++] = target;
+        }
+      }
+      return new ObjectFile(code, size, 0, labels, source);
+    }
+
+    // testo .asm equivalente, una istruzione per riga
+    @Override
+    public String toString() {
+      StringBuilder s = new StringBuilder();
+      for (Code c : flatten()) {
+        if (s.length() > 0) s.append('\n');
+        if (c.op == LABEL) s.append(c.label).append(':');
+        else if (c.op != BLANK) {
+          s.append(mnemonic(c.op));
+          if (c.size == 2) s.append(' ').append(c.label != null ? c.label : Integer.toString(c.arg));
+        }
+      }
+      return s.toString();
+    }
+
+    // istruzioni nell'ordine di emissione (visita iterativa: le catene di join possono
+    // essere molto profonde, ad esempio per molte dichiarazioni di seguito)
+    List<Code> flatten() {
+      List<Code> instructions = new ArrayList<>();
+      Deque<Code> stack = new ArrayDeque<>();
+      stack.push(this);
+      while (!stack.isEmpty()) {
+        Code c = stack.pop();
+        if (c.parts == null) {
+          instructions.add(c);
+        } else {
+          for (int k = c.parts.length - 1; k >= 0; k--) stack.push(c.parts[k]);
+        }
+      }
+      return instructions;
+    }
+
+    private static boolean hasOperand(int op) {
+      return op == SVMParser.PUSH || op == SVMParser.NEW || op == SVMParser.DISPATCH
+          || op == SVMParser.BRANCH || op == SVMParser.BRANCHEQ || op == SVMParser.BRANCHLESSEQ;
+    }
+
+    static String mnemonic(int op) {
+      switch (op) {
+        case SVMParser.PUSH: return "push";
+        case SVMParser.POP: return "pop";
+        case SVMParser.ADD: return "add";
+        case SVMParser.SUB: return "sub";
+        case SVMParser.MULT: return "mult";
+        case SVMParser.DIV: return "div";
+        case SVMParser.STOREW: return "sw";
+        case SVMParser.LOADW: return "lw";
+        case SVMParser.BRANCH: return "b";
+        case SVMParser.BRANCHEQ: return "beq";
+        case SVMParser.BRANCHLESSEQ: return "bleq";
+        case SVMParser.JS: return "js";
+        case SVMParser.LOADRA: return "lra";
+        case SVMParser.STORERA: return "sra";
+        case SVMParser.LOADTM: return "ltm";
+        case SVMParser.STORETM: return "stm";
+        case SVMParser.LOADFP: return "lfp";
+        case SVMParser.STOREFP: return "sfp";
+        case SVMParser.COPYFP: return "cfp";
+        case SVMParser.LOADHP: return "lhp";
+        case SVMParser.STOREHP: return "shp";
+        case SVMParser.NEW: return "new";
+        case SVMParser.PRINT: return "print";
+        case SVMParser.HALT: return "halt";
+        case SVMParser.DISPATCH: return "dispatch";
+        case SVMParser.TJS: return "tjs";
+        default: throw new IllegalArgumentException("Unknown opcode " + op);
+      }
+    }
+
+}
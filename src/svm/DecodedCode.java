@@ -0,0 +1,181 @@
+package svm;
+
+// forma pre-decodificata del codice SVM: ogni istruzione occupa una sola posizione,
+// con opcode denso in ops[] e operando inline in args[] (target dei salti gia' risolti)
+public class DecodedCode {
+
+    public static final int PUSH = 0;
+    public static final int POP = 1;
+    public static final int ADD = 2;
+    public static final int SUB = 3;
+    public static final int MULT = 4;
+    public static final int DIV = 5;
+    public static final int STOREW = 6;
+    public static final int LOADW = 7;
+    public static final int BRANCH = 8;
+    public static final int BRANCHEQ = 9;
+    public static final int BRANCHLESSEQ = 10;
+    public static final int JS = 11;
+    public static final int LOADRA = 12;
+    public static final int STORERA = 13;
+    public static final int LOADTM = 14;
+    public static final int STORETM = 15;
+    public static final int LOADFP = 16;
+    public static final int STOREFP = 17;
+    public static final int COPYFP = 18;
+    public static final int LOADHP = 19;
+    public static final int STOREHP = 20;
+    public static final int PRINT = 21;
+    public static final int HALT = 22;
+    public static final int NOP = 23; // word non riconosciuto (es. padding del buffer di codice)
+    public static final int NEW = 29;  // allocazione di un oggetto nell'heap gestito
+    public static final int DISPATCH = 30; // chiamata di metodo tramite dispatch table (con cache inline)
+    public static final int TJS = 31;      // salto a indirizzo dallo stack senza modificare $ra (chiamata in coda)
+
+    // superistruzioni, riconosciute sugli idiomi emessi da CodeGenerationASTVisitor
+    public static final int LOADFPOFF = 24; // lfp; push k; add; lw  (variabile nel frame corrente)
+    public static final int LOADOFF = 25;   // push k; add; lw       (campo/variabile da indirizzo sullo stack)
+    public static final int ADDI = 26;      // push k; add
+    public static final int INCHP = 27;     // lhp; push 1; add; shp (incremento di hp)
+    public static final int DUPTM = 28;     // stm; ltm; ltm         (duplicazione via $tm)
+
+    final int[] code;  // codice originale
+    final int[] ops;   // opcode per istruzione
+    final int[] args;  // operando inline (per i salti: indice dell'istruzione target)
+    final int[] addr;  // indice istruzione -> indirizzo nel codice originale
+    final int[] index; // indirizzo nel codice originale -> indice istruzione (-1 se interno)
+    final int size;    // numero di istruzioni
+
+    public DecodedCode(int[] code) {
+      this(code, true);
+    }
+
+    public DecodedCode(int[] code, boolean fuse) {
+      this.code = code;
+      int end = code.length;
+      while (end > 0 && code[end-1] == 0) end--; // ignora il padding finale
+      // 1. decodifica istruzione per istruzione
+      int[] ops = new int[end+1];
+      int[] args = new int[end+1];
+      int[] addr = new int[end+1];
+      int n = 0;
+      int ip = 0;
+      while (ip < end) {
+        addr[n] = ip;
+        int op = opcode(code[ip++]);
+        ops[n] = op;
+        if (hasArg(op)) args[n] = code[ip++];
+        n++;
+      }
+      // istruzione di guardia: chi cade oltre la fine del codice esegue halt
+      addr[n] = ip;
+      ops[n] = HALT;
+      n++;
+      // 2. possibili destinazioni di un salto: target dei branch, punti di ritorno
+      // dopo js/dispatch e valori di push che cadono su un inizio di istruzione (label di funzione)
+      boolean[] start = new boolean[ip+1];
+      boolean[] target = new boolean[ip+1];
+      for (int i = 0; i < n; i++) start[addr[i]] = true;
+      target[0] = true;
+      for (int i = 0; i < n; i++) {
+        if (isBranch(ops[i]) || ops[i] == PUSH)
+          if (args[i] >= 0 && args[i] <= ip && start[args[i]]) target[args[i]] = true;
+        if (ops[i] == JS || ops[i] == DISPATCH) target[addr[i+1]] = true;
+      }
+      // 3. fusione delle sequenze che non contengono destinazioni di salto al loro interno
+      this.ops = new int[n];
+      this.args = new int[n];
+      this.addr = new int[n];
+      index = new int[code.length+1];
+      java.util.Arrays.fill(index, -1);
+      int m = 0;
+      for (int i = 0; i < n; ) {
+        int len = fuse ? fusedLength(ops, args, addr, target, i, n) : 1;
+        index[addr[i]] = m;
+        this.addr[m] = addr[i];
+        this.ops[m] = ops[i];
+        this.args[m] = args[i];
+        if (len == 4 && ops[i] == LOADFP) {
+          this.ops[m] = LOADFPOFF;
+          this.args[m] = args[i+1];
+        } else if (len == 4) {
+          this.ops[m] = INCHP;
+        } else if (len == 3 && ops[i] == PUSH) {
+          this.ops[m] = LOADOFF;
+        } else if (len == 3) {
+          this.ops[m] = DUPTM;
+        } else if (len == 2) {
+          this.ops[m] = ADDI;
+        }
+        m++;
+        i += len;
+      }
+      size = m;
+      for (int i = 0; i < size; i++)
+        if (isBranch(this.ops[i])) this.args[i] = index[this.args[i]];
+    }
+
+    // lunghezza della superistruzione che inizia in i (1 se nessuna)
+    private static int fusedLength(int[] ops, int[] args, int[] addr, boolean[] target, int i, int n) {
+      if (matches(ops, addr, target, i, n, LOADFP, PUSH, ADD, LOADW)) return 4;
+      if (matches(ops, addr, target, i, n, LOADHP, PUSH, ADD, STOREHP) && args[i+1] == 1) return 4;
+      if (matches(ops, addr, target, i, n, PUSH, ADD, LOADW)) return 3;
+      if (matches(ops, addr, target, i, n, STORETM, LOADTM, LOADTM)) return 3;
+      if (matches(ops, addr, target, i, n, PUSH, ADD)) return 2;
+      return 1;
+    }
+
+    private static boolean matches(int[] ops, int[] addr, boolean[] target, int i, int n, int... pattern) {
+      if (i + pattern.length > n) return false;
+      for (int j = 0; j < pattern.length; j++) {
+        if (ops[i+j] != pattern[j]) return false;
+        if (j > 0 && target[addr[i+j]]) return false;
+      }
+      return true;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    static boolean hasArg(int op) {
+      return op == PUSH || op == NEW || op == DISPATCH || isBranch(op);
+    }
+
+    static boolean isBranch(int op) {
+      return op == BRANCH || op == BRANCHEQ || op == BRANCHLESSEQ;
+    }
+
+    static int opcode(int bytecode) {
+      switch ( bytecode ) {
+        case SVMParser.PUSH: return PUSH;
+        case SVMParser.POP: return POP;
+        case SVMParser.ADD: return ADD;
+        case SVMParser.SUB: return SUB;
+        case SVMParser.MULT: return MULT;
+        case SVMParser.DIV: return DIV;
+        case SVMParser.STOREW: return STOREW;
+        case SVMParser.LOADW: return LOADW;
+        case SVMParser.BRANCH: return BRANCH;
+        case SVMParser.BRANCHEQ: return BRANCHEQ;
+        case SVMParser.BRANCHLESSEQ: return BRANCHLESSEQ;
+        case SVMParser.JS: return JS;
+        case SVMParser.LOADRA: return LOADRA;
+        case SVMParser.STORERA: return STORERA;
+        case SVMParser.LOADTM: return LOADTM;
+        case SVMParser.STORETM: return STORETM;
+        case SVMParser.LOADFP: return LOADFP;
+        case SVMParser.STOREFP: return STOREFP;
+        case SVMParser.COPYFP: return COPYFP;
+        case SVMParser.LOADHP: return LOADHP;
+        case SVMParser.STOREHP: return STOREHP;
+        case SVMParser.PRINT: return PRINT;
+        case SVMParser.HALT: return HALT;
+        case SVMParser.NEW: return NEW;
+        case SVMParser.DISPATCH: return DISPATCH;
+        case SVMParser.TJS: return TJS;
+        default: return NOP;
+      }
+    }
+
+}
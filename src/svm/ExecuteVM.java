@@ -1,27 +1,179 @@
 package svm;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
 public class ExecuteVM {
     
     public static final int CODESIZE = 10000;
-    public static final int MEMSIZE = 10000;
+    public static final int MEMSIZE = 10000; // dimensione di default della memoria
     
-    private int[] code;
-    private int[] memory = new int[MEMSIZE];
+    // gli object pointer restituiti da new hanno il bit POINTER_TAG acceso (il collector
+    // li distingue cosi' dagli interi); lw e sw lo ignorano mascherando l'indirizzo
+    static final int POINTER_TAG = 0x40000000;
+    static final int ADDRESS_MASK = POINTER_TAG - 1;
     
-    private int ip = 0;
-    private int sp = MEMSIZE;
+    int[] code;
+    private DecodedCode decoded;
+    Memory memory;
     
-    private int hp = 0;       
-    private int fp = MEMSIZE; 
-    private int ra;           
-    private int tm;
+    // registri accessibili (a livello di package) anche dal codice compilato dal JIT
+    int ip = 0;
+    int sp;
+    
+    int hp = 0;       
+    int fp; 
+    int ra;           
+    int tm;
+    
+    final Heap heap = new Heap(this);
+    
+    private Output output = new StreamOutput(System.out);
+    
+    private long instructions; // istruzioni eseguite da cpu()
+    private Profiler profiler; // null: profilo disabilitato
+    private Trace trace;       // null: traccia disabilitata
+    
+    // cache inline delle dispatch, per indirizzo dell'istruzione nel codice: ultimo
+    // dispatch pointer visto e metodo corrispondente (allocate alla prima dispatch)
+    private int[] cacheDp;
+    private int[] cacheTarget;
+    
+    private static final int NO_STOP = Integer.MIN_VALUE;
+    
+    private int jitThreshold;             // 0: JIT disabilitato
+    private int[] jitHits;                // ingressi per indice di istruzione
+    private AtomicReferenceArray<JitCompiler.Compiled> jitCode; // funzioni compilate, per indice di istruzione
+    
+    // ogni chiamata da codice compilato annida frame sullo stack Java (run -> call -> run ...):
+    // oltre MAX_JIT_DEPTH chiamate annidate il resto della ricorsione e' interpretato, nel
+    // ciclo di execute(), cosi' la profondita' dipende solo dalla memoria della VM come in cpu()
+    private static final int MAX_JIT_DEPTH = 256;
+    private int jitDepth;
     
     public ExecuteVM(int[] code) {
+      this(code, MEMSIZE);
+    }
+    
+    // memSize: parole di memoria condivise da heap (dal basso) e stack (dall'alto)
+    public ExecuteVM(int[] code, int memSize) {
+      this(code, new ArrayMemory(checkMemorySize(memSize)));
+    }
+    
+    public ExecuteVM(int[] code, Memory memory) {
+      checkMemorySize(memory.size());
       this.code = code;
+      this.memory = memory;
+      sp = memory.size();
+      fp = memory.size();
+    }
+    
+    public ExecuteVM(DecodedCode decoded) {
+      this(decoded, MEMSIZE);
+    }
+    
+    public ExecuteVM(DecodedCode decoded, int memSize) {
+      this(decoded, new ArrayMemory(checkMemorySize(memSize)));
+    }
+    
+    public ExecuteVM(DecodedCode decoded, Memory memory) {
+      this(decoded.code, memory);
+      this.decoded = decoded;
+    }
+    
+    // gli indirizzi da ADDRESS_MASK+1 in su hanno acceso POINTER_TAG, che lw e sw tolgono:
+    // una memoria piu' grande manderebbe le parole in cima allo stack a indirizzi sbagliati
+    static int checkMemorySize(int size) {
+      if (size < 0 || size > ADDRESS_MASK + 1)
+        throw new IllegalArgumentException("Memory size "+size+" out of range (0 to "+(ADDRESS_MASK + 1)+" words)");
+      return size;
+    }
+    
+    // con cpuDecoded(), una funzione entrata piu' di threshold volte viene
+    // tradotta in bytecode JVM ed eseguita fuori dall'interprete
+    public void enableJit(int threshold) {
+      jitThreshold = threshold;
+    }
+    
+    // funzioni compilate condivise con le altre VM che eseguono lo stesso DecodedCode (vedi
+    // BatchRunner): la tabella e' thread-safe, mentre gli ingressi sono contati da ogni VM
+    void shareJitCode(AtomicReferenceArray<JitCompiler.Compiled> compiled) {
+      jitCode = compiled;
+    }
+    
+    // destinazione delle print (di default System.out, bufferizzato e svuotato all'halt)
+    public void setOutput(Output output) {
+      this.output = output;
     }
     
     public void cpu() {
+      cpu(Long.MAX_VALUE);
+    }
+    
+    // esegue fino all'halt (restituisce true) o fino a esaurire il budget di istruzioni
+    // (restituisce false): lo stato resta nei registri e una nuova chiamata riprende da li'.
+    // Il budget e' controllato solo nei salti all'indietro e nei js, quindi puo' essere
+    // superato di poco
+    public boolean cpu(long budget) {
+      try {
+        return interpret(budget);
+      } catch (RuntimeException e) {
+        if (trace != null) {
+          output.flush();
+          trace.dump(System.err);
+        }
+        throw e;
+      } finally {
+        output.flush();
+      }
+    }
+    
+    // con cpu(), registra le ultime size istruzioni eseguite (indirizzo, opcode, $sp, $fp, $hp);
+    // la traccia e' scritta su System.err se l'esecuzione termina con un errore
+    public void enableTrace(int size) {
+      trace = new Trace(size);
+    }
+    
+    public void dumpTrace(PrintStream out) {
+      if (trace != null) trace.dump(out);
+    }
+    
+    // salva in un file lo stato completo della VM (memoria, registri e heap), ad esempio
+    // dopo l'inizializzazione del programma interrotta con cpu(budget): restore() crea
+    // una VM che riprende l'esecuzione da quel punto
+    public void snapshot(Path file) throws IOException {
+      Snapshot.save(this, file);
+    }
+    
+    public static ExecuteVM restore(int[] code, Path file) throws IOException {
+      return Snapshot.load(code, null, file);
+    }
+    
+    public static ExecuteVM restore(DecodedCode decoded, Path file) throws IOException {
+      return Snapshot.load(decoded.code, decoded, file);
+    }
+    
+    // con cpu(), conta le istruzioni eseguite per opcode e per funzione (riconosciuta dalla
+    // sua label, es. da ObjectFile.labels) e all'halt scrive il report su out
+    public void enableProfiling(Map<String,Integer> labels, PrintStream out) {
+      profiler = new Profiler(code, labels, out);
+      profiler.jump(ip);
+    }
+    
+    // istruzioni eseguite finora da cpu()
+    public long getInstructionCount() {
+      return instructions;
+    }
+    
+    private boolean interpret(long budget) {
+      long limit = budget < Long.MAX_VALUE - instructions ? instructions + budget : Long.MAX_VALUE;
       while ( true ) {
         int bytecode = code[ip++]; // fetch
+        instructions++;
+        if (trace != null) trace.record(ip-1, bytecode, sp, fp, hp);
         int v1,v2;
         int address;
         switch ( bytecode ) {
@@ -52,32 +204,57 @@ public class ExecuteVM {
             push(v2 - v1);
             break;
           case SVMParser.STOREW : //
-            address = pop();
-            memory[address] = pop();    
+            address = pop() & ADDRESS_MASK;
+            memory.set(address, pop());    
             break;
           case SVMParser.LOADW : //
-            push(memory[pop()]);
+            push(memory.get(pop() & ADDRESS_MASK));
             break;
           case SVMParser.BRANCH : 
             address = code[ip];
+            if (profiler != null) profiler.jump(address);
+            if (address < ip && instructions >= limit) { ip = address; return false; }
             ip = address;
             break;
           case SVMParser.BRANCHEQ :
             address = code[ip++];
             v1=pop();
             v2=pop();
-            if (v2 == v1) ip = address;
+            if (profiler != null) profiler.jump(v2 == v1 ? address : ip);
+            if (v2 == v1) {
+              if (address < ip && instructions >= limit) { ip = address; return false; }
+              ip = address;
+            }
             break;
           case SVMParser.BRANCHLESSEQ :
             address = code[ip++];
             v1=pop();
             v2=pop();
-            if (v2 <= v1) ip = address;
+            if (profiler != null) profiler.jump(v2 <= v1 ? address : ip);
+            if (v2 <= v1) {
+              if (address < ip && instructions >= limit) { ip = address; return false; }
+              ip = address;
+            }
             break;
           case SVMParser.JS : //
             address = pop();
             ra = ip;
             ip = address;
+            if (profiler != null) profiler.js(address, instructions);
+            if (instructions >= limit) return false;
+            break;
+          case SVMParser.TJS : // chiamata in coda: $ra resta quello del chiamante
+            address = pop();
+            ip = address;
+            if (profiler != null) profiler.tailJs(address, instructions);
+            if (instructions >= limit) return false;
+            break;
+          case SVMParser.DISPATCH :
+            address = dispatch(ip-1, pop(), code[ip]);
+            ra = ip+1;
+            ip = address;
+            if (profiler != null) profiler.js(address, instructions);
+            if (instructions >= limit) return false;
             break;
          case SVMParser.STORERA : //
             ra=pop();
@@ -102,25 +279,430 @@ public class ExecuteVM {
             break;
          case SVMParser.STOREHP : //
             hp=pop();
+            if (hp > sp) throw collision(hp, sp);
             break;
          case SVMParser.LOADHP : //
             push(hp);
             break;
          case SVMParser.PRINT :
-            System.out.println((sp<MEMSIZE)?memory[sp]:"Empty stack!");
+            print(sp);
+            break;
+         case SVMParser.NEW :
+            heap.newObject(code[ip++]);
             break;
          case SVMParser.HALT :
-            return;
+            if (profiler != null) profiler.halt(instructions);
+            return true;
         }
       }
     } 
     
+    // esecuzione sul codice pre-decodificato: stessa semantica di cpu(), ma senza
+    // ri-decodificare operandi e con i target dei salti gia' risolti
+    public void cpuDecoded() {
+      if (decoded == null) decoded = new DecodedCode(code);
+      if (jitThreshold > 0 && jitHits == null) {
+        jitHits = new int[decoded.size];
+        if (jitCode == null) jitCode = new AtomicReferenceArray<>(decoded.size);
+      }
+      try {
+        execute(NO_STOP, 0);
+      } finally {
+        output.flush();
+      }
+    }
+    
+    // interpreta fino a halt o fino al js che salta a stopIp con $fp == stopFp
+    // (il ritorno a un chiamante compilato)
+    private void execute(int stopIp, int stopFp) {
+      final int[] ops = decoded.ops;
+      final int[] args = decoded.args;
+      final int[] addr = decoded.addr;
+      final int[] index = decoded.index;
+      final Memory memory = this.memory;
+      int pc = index[ip];
+      int sp = this.sp, fp = this.fp, hp = this.hp, ra = this.ra, tm = this.tm;
+      int v1,v2;
+      while ( true ) {
+        int i = pc++;
+        switch ( ops[i] ) {
+          case DecodedCode.PUSH:
+            if (sp <= hp) throw collision(hp, sp);
+            memory.set(--sp, args[i]);
+            break;
+          case DecodedCode.POP:
+            sp++;
+            break;
+          case DecodedCode.ADD :
+            v1=memory.get(sp++);
+            memory.set(sp, memory.get(sp) + v1);
+            break;
+          case DecodedCode.MULT :
+            v1=memory.get(sp++);
+            memory.set(sp, memory.get(sp) * v1);
+            break;
+          case DecodedCode.DIV :
+            v1=memory.get(sp++);
+            memory.set(sp, memory.get(sp) / v1);
+            break;
+          case DecodedCode.SUB :
+            v1=memory.get(sp++);
+            memory.set(sp, memory.get(sp) - v1);
+            break;
+          case DecodedCode.STOREW :
+            v1=memory.get(sp++);
+            memory.set(v1 & ADDRESS_MASK, memory.get(sp++));
+            break;
+          case DecodedCode.LOADW :
+            memory.set(sp, memory.get(memory.get(sp) & ADDRESS_MASK));
+            break;
+          case DecodedCode.BRANCH :
+            pc = args[i];
+            break;
+          case DecodedCode.BRANCHEQ :
+            v1=memory.get(sp++);
+            v2=memory.get(sp++);
+            if (v2 == v1) pc = args[i];
+            break;
+          case DecodedCode.BRANCHLESSEQ :
+            v1=memory.get(sp++);
+            v2=memory.get(sp++);
+            if (v2 <= v1) pc = args[i];
+            break;
+          case DecodedCode.DISPATCH :
+          case DecodedCode.JS :
+          case DecodedCode.TJS :
+            v1 = memory.get(sp++);
+            if (ops[i] == DecodedCode.DISPATCH) v1 = dispatch(addr[i], v1, args[i]);
+            if (ops[i] != DecodedCode.TJS) ra = addr[pc]; // indirizzo di ritorno nello spazio del codice originale
+            if (v1 == stopIp && fp == stopFp) {
+              this.ip = v1;
+              this.sp = sp; this.fp = fp; this.hp = hp; this.ra = ra; this.tm = tm;
+              return;
+            }
+            pc = index[v1];
+            if (jitHits != null && jitDepth < MAX_JIT_DEPTH) {
+              JitCompiler.Compiled compiled = jitLookup(pc);
+              if (compiled != null) {
+                this.sp = sp; this.fp = fp; this.hp = hp; this.ra = ra; this.tm = tm;
+                compiled.run(this);
+                sp = this.sp; fp = this.fp; hp = this.hp; ra = this.ra; tm = this.tm;
+                if (this.ip == stopIp && fp == stopFp) return;
+                pc = index[this.ip];
+              }
+            }
+            break;
+          case DecodedCode.STORERA :
+            ra=memory.get(sp++);
+            break;
+          case DecodedCode.LOADRA :
+            if (sp <= hp) throw collision(hp, sp);
+            memory.set(--sp, ra);
+            break;
+          case DecodedCode.STORETM :
+            tm=memory.get(sp++);
+            break;
+          case DecodedCode.LOADTM :
+            if (sp <= hp) throw collision(hp, sp);
+            memory.set(--sp, tm);
+            break;
+          case DecodedCode.LOADFP :
+            if (sp <= hp) throw collision(hp, sp);
+            memory.set(--sp, fp);
+            break;
+          case DecodedCode.STOREFP :
+            fp=memory.get(sp++);
+            break;
+          case DecodedCode.COPYFP :
+            fp=sp;
+            break;
+          case DecodedCode.STOREHP :
+            hp=memory.get(sp++);
+            if (hp > sp) throw collision(hp, sp);
+            break;
+          case DecodedCode.LOADHP :
+            if (sp <= hp) throw collision(hp, sp);
+            memory.set(--sp, hp);
+            break;
+          case DecodedCode.PRINT :
+            print(sp);
+            break;
+          case DecodedCode.NEW :
+            this.sp = sp; this.hp = hp; this.ra = ra; this.tm = tm;
+            heap.newObject(args[i]);
+            sp = this.sp; hp = this.hp;
+            break;
+          case DecodedCode.LOADFPOFF :
+            if (sp <= hp) throw collision(hp, sp);
+            memory.set(--sp, memory.get(fp + args[i]));
+            break;
+          case DecodedCode.LOADOFF :
+            memory.set(sp, memory.get((memory.get(sp) + args[i]) & ADDRESS_MASK));
+            break;
+          case DecodedCode.ADDI :
+            memory.set(sp, memory.get(sp) + args[i]);
+            break;
+          case DecodedCode.INCHP :
+            if (++hp > sp) throw collision(hp, sp);
+            break;
+          case DecodedCode.DUPTM :
+            tm = memory.get(sp);
+            if (sp <= hp) throw collision(hp, sp);
+            memory.set(--sp, tm);
+            break;
+          case DecodedCode.HALT :
+            this.ip = addr[i]+1;
+            this.sp = sp; this.fp = fp; this.hp = hp; this.ra = ra; this.tm = tm;
+            return;
+        }
+      }
+    }
+    
+    // come cpuDecoded(), ma con la cima dello stack mantenuta nella variabile locale tos:
+    // memory[sp] non e' aggiornata (a stack non vuoto) e viene scritta solo quando serve,
+    // cioe' prima di un push e prima delle istruzioni che leggono memoria o $sp
+    public void cpuCached() {
+      if (decoded == null) decoded = new DecodedCode(code);
+      try {
+        executeCached();
+      } finally {
+        output.flush();
+      }
+    }
+    
+    private void executeCached() {
+      final int[] ops = decoded.ops;
+      final int[] args = decoded.args;
+      final int[] addr = decoded.addr;
+      final int[] index = decoded.index;
+      final Memory memory = this.memory;
+      final int top = memory.size(); // sp == top: stack vuoto, tos non significativo
+      int pc = index[ip];
+      int sp = this.sp, fp = this.fp, hp = this.hp, ra = this.ra, tm = this.tm;
+      int tos = (sp < top) ? memory.get(sp) : 0;
+      int v1,v2;
+      while ( true ) {
+        int i = pc++;
+        switch ( ops[i] ) {
+          case DecodedCode.PUSH:
+            if (sp <= hp) throw collision(hp, sp);
+            if (sp < top) memory.set(sp, tos);
+            sp--;
+            tos = args[i];
+            break;
+          case DecodedCode.POP:
+            if (++sp < top) tos = memory.get(sp);
+            break;
+          case DecodedCode.ADD :
+            tos = memory.get(++sp) + tos;
+            break;
+          case DecodedCode.MULT :
+            tos = memory.get(++sp) * tos;
+            break;
+          case DecodedCode.DIV :
+            tos = memory.get(++sp) / tos;
+            break;
+          case DecodedCode.SUB :
+            tos = memory.get(++sp) - tos;
+            break;
+          case DecodedCode.STOREW :
+            memory.set(tos & ADDRESS_MASK, memory.get(sp+1));
+            sp += 2;
+            if (sp < top) tos = memory.get(sp);
+            break;
+          case DecodedCode.LOADW :
+            memory.set(sp, tos);
+            tos = memory.get(tos & ADDRESS_MASK);
+            break;
+          case DecodedCode.BRANCH :
+            pc = args[i];
+            break;
+          case DecodedCode.BRANCHEQ :
+            v1=tos;
+            v2=memory.get(sp+1);
+            sp += 2;
+            if (sp < top) tos = memory.get(sp);
+            if (v2 == v1) pc = args[i];
+            break;
+          case DecodedCode.BRANCHLESSEQ :
+            v1=tos;
+            v2=memory.get(sp+1);
+            sp += 2;
+            if (sp < top) tos = memory.get(sp);
+            if (v2 <= v1) pc = args[i];
+            break;
+          case DecodedCode.JS :
+            v1=tos;
+            if (++sp < top) tos = memory.get(sp);
+            ra = addr[pc];
+            pc = index[v1];
+            break;
+          case DecodedCode.DISPATCH :
+            v1 = dispatch(addr[i], tos, args[i]);
+            if (++sp < top) tos = memory.get(sp);
+            ra = addr[pc];
+            pc = index[v1];
+            break;
+          case DecodedCode.TJS :
+            v1=tos;
+            if (++sp < top) tos = memory.get(sp);
+            pc = index[v1];
+            break;
+          case DecodedCode.STORERA :
+            ra=tos;
+            if (++sp < top) tos = memory.get(sp);
+            break;
+          case DecodedCode.LOADRA :
+            if (sp <= hp) throw collision(hp, sp);
+            if (sp < top) memory.set(sp, tos);
+            sp--;
+            tos = ra;
+            break;
+          case DecodedCode.STORETM :
+            tm=tos;
+            if (++sp < top) tos = memory.get(sp);
+            break;
+          case DecodedCode.LOADTM :
+            if (sp <= hp) throw collision(hp, sp);
+            if (sp < top) memory.set(sp, tos);
+            sp--;
+            tos = tm;
+            break;
+          case DecodedCode.LOADFP :
+            if (sp <= hp) throw collision(hp, sp);
+            if (sp < top) memory.set(sp, tos);
+            sp--;
+            tos = fp;
+            break;
+          case DecodedCode.STOREFP :
+            fp=tos;
+            if (++sp < top) tos = memory.get(sp);
+            break;
+          case DecodedCode.COPYFP :
+            if (sp < top) memory.set(sp, tos);
+            fp=sp;
+            break;
+          case DecodedCode.STOREHP :
+            hp=tos;
+            if (++sp < top) tos = memory.get(sp);
+            if (hp > sp) throw collision(hp, sp);
+            break;
+          case DecodedCode.LOADHP :
+            if (sp <= hp) throw collision(hp, sp);
+            if (sp < top) memory.set(sp, tos);
+            sp--;
+            tos = hp;
+            break;
+          case DecodedCode.PRINT :
+            if (sp<top) output.print(tos); else output.printEmpty();
+            break;
+          case DecodedCode.NEW :
+            memory.set(sp, tos);
+            this.sp = sp; this.hp = hp; this.ra = ra; this.tm = tm;
+            heap.newObject(args[i]);
+            sp = this.sp; hp = this.hp;
+            tos = memory.get(sp);
+            break;
+          case DecodedCode.LOADFPOFF :
+            if (sp <= hp) throw collision(hp, sp);
+            if (sp < top) memory.set(sp, tos);
+            sp--;
+            tos = memory.get(fp + args[i]);
+            break;
+          case DecodedCode.LOADOFF :
+            memory.set(sp, tos);
+            tos = memory.get((tos + args[i]) & ADDRESS_MASK);
+            break;
+          case DecodedCode.ADDI :
+            tos += args[i];
+            break;
+          case DecodedCode.INCHP :
+            if (++hp > sp) throw collision(hp, sp);
+            break;
+          case DecodedCode.DUPTM :
+            tm = tos;
+            if (sp <= hp) throw collision(hp, sp);
+            memory.set(sp--, tos);
+            break;
+          case DecodedCode.HALT :
+            if (sp < top) memory.set(sp, tos);
+            this.ip = addr[i]+1;
+            this.sp = sp; this.fp = fp; this.hp = hp; this.ra = ra; this.tm = tm;
+            return;
+        }
+      }
+    }
+    
+    // conta gli ingressi in una funzione e la compila al superamento della soglia (se un'altra
+    // VM ha pubblicato prima la stessa funzione, si usa la sua)
+    private JitCompiler.Compiled jitLookup(int pc) {
+      JitCompiler.Compiled compiled = jitCode.get(pc);
+      if (compiled == null && ++jitHits[pc] == jitThreshold) {
+        compiled = JitCompiler.compile(decoded, pc);
+        if (compiled != null && !jitCode.compareAndSet(pc, null, compiled)) compiled = jitCode.get(pc);
+      }
+      return compiled;
+    }
+    
+    // chiamata da codice compilato: esegue la funzione in target fino al suo ritorno
+    // in $ra, con $fp ripristinato a quello del chiamante. Il codice compilato che
+    // termina con una chiamata in coda lascia in ip la funzione da eseguire al suo posto
+    void call(int target) {
+      int ret = ra, frame = fp;
+      ip = target;
+      jitDepth++;
+      try {
+        JitCompiler.Compiled compiled;
+        while (jitDepth < MAX_JIT_DEPTH && (compiled = jitLookup(decoded.index[ip])) != null) {
+          compiled.run(this);
+          if (ip == ret && fp == frame) return;
+        }
+        execute(ret, frame);
+      } finally {
+        jitDepth--;
+      }
+    }
+    
+    // dispatch k (istruzione all'indirizzo site): indirizzo del metodo di offset k
+    // nella dispatch table dell'oggetto. Se il dispatch pointer e' lo stesso della
+    // volta precedente in questo call site il metodo e' preso dalla cache, senza
+    // leggere la dispatch table (usata anche dal codice compilato)
+    int dispatch(int site, int object, int offset) {
+      if (cacheDp == null) {
+        cacheDp = new int[code.length];
+        cacheTarget = new int[code.length];
+        java.util.Arrays.fill(cacheDp, -1); // 0 e' un dispatch pointer valido
+      }
+      int dp = memory.get(object & ADDRESS_MASK);
+      if (cacheDp[site] == dp) return cacheTarget[site];
+      int target = memory.get((dp + offset) & ADDRESS_MASK);
+      cacheDp[site] = dp;
+      cacheTarget[site] = target;
+      return target;
+    }
+    
+    // new eseguita da codice compilato
+    void newObject(int n) {
+      heap.newObject(n);
+    }
+    
+    // print della cima dello stack (usata anche dal codice compilato)
+    void print(int sp) {
+      if (sp<memory.size()) output.print(memory.get(sp)); else output.printEmpty();
+    }
+    
     private int pop() {
-      return memory[sp++];
+      return memory.get(sp++);
     }
     
     private void push(int v) {
-      memory[--sp] = v;
+      if (sp <= hp) throw collision(hp, sp);
+      memory.set(--sp, v);
+    }
+    
+    // lo stack (che cresce verso il basso) ha raggiunto l'heap o viceversa
+    static OutOfMemoryException collision(int hp, int sp) {
+      return new OutOfMemoryException("Out of memory: heap and stack collided (hp="+hp+", sp="+sp+")");
     }
     
 }
\ No newline at end of file
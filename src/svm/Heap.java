@@ -0,0 +1,176 @@
+package svm;
+
+import java.nio.IntBuffer;
+import java.util.BitSet;
+
+// heap gestito della SVM: a partire dalla prima "new" lo spazio sopra i dispatch table
+// e' diviso in blocchi [dati][header], con header = numero di parole di dati
+// (negativo se il blocco e' libero). L'object pointer di un blocco allocato e' la
+// parola subito sotto l'header, che contiene il dispatch pointer, con il bit
+// ExecuteVM.POINTER_TAG acceso.
+//
+// La memoria della SVM non distingue interi e puntatori, quindi il collector e'
+// mark-sweep conservativo: e' radice ogni parola dello stack (e $tm, $ra) che coincide
+// con l'object pointer (con tag) di un blocco allocato. Gli oggetti non vengono spostati, quindi
+// nessun puntatore va aggiornato; i blocchi liberati finiscono in una free list
+// (adiacenti fusi tra loro) e quelli in cima all'heap abbassano $hp.
+class Heap {
+
+    private static final int MIN_GC_WORDS = 1024; // parole allocabili come minimo tra due raccolte
+
+    private final ExecuteVM vm;
+    private int base = -1;      // inizio dei blocchi ($hp alla prima new)
+    private int free = -1;      // header del primo blocco libero
+    private int allocated;      // parole allocate dall'ultima raccolta
+    private int budget;         // parole allocabili prima della prossima raccolta
+    private BitSet objects;     // object pointer dei blocchi allocati
+    private BitSet marks;
+    private int[] work = new int[64];
+    int collections;
+
+    Heap(ExecuteVM vm) {
+      this.vm = vm;
+    }
+
+    // new n: dispatch pointer in cima allo stack, sotto gli n campi (l'ultimo in cima)
+    void newObject(int n) {
+      Memory memory = vm.memory;
+      int h = allocate(n+1); // gli argomenti sono ancora sullo stack, quindi radici
+      int p = h-1;
+      memory.set(p, memory.get(vm.sp));
+      for (int k = 0; k < n; k++) memory.set(p-n+k, memory.get(vm.sp+1+k));
+      objects.set(p);
+      vm.sp += n;
+      memory.set(vm.sp, p | ExecuteVM.POINTER_TAG);
+    }
+
+    // restituisce l'header di un blocco con almeno size parole di dati
+    private int allocate(int size) {
+      if (base < 0) {
+        base = vm.hp;
+        budget = MIN_GC_WORDS;
+        objects = new BitSet();
+        marks = new BitSet();
+      }
+      if (allocated + size + 1 > budget) collect();
+      int h = takeFree(size);
+      if (h < 0 && vm.hp + size + 1 > vm.sp) { // l'heap sta per raggiungere lo stack
+        collect();
+        h = takeFree(size);
+      }
+      if (h < 0) {
+        if (vm.hp + size + 1 > vm.sp) throw new OutOfMemoryException("Heap exhausted: no room for "+size+" words");
+        h = vm.hp + size;
+        vm.memory.set(h, size);
+        vm.hp = h + 1;
+      }
+      allocated += size + 1;
+      return h;
+    }
+
+    // first fit sulla free list: il blocco allocato e' la parte bassa di quello libero
+    private int takeFree(int size) {
+      Memory memory = vm.memory;
+      int prev = -1;
+      for (int h = free; h >= 0; prev = h, h = memory.get(h-1)) {
+        int available = -memory.get(h);
+        if (available < size) continue;
+        if (available - size >= 2) { // il resto (con il suo header) rimane libero in h
+          memory.set(h, -(available - size - 1));
+          int a = h - available + size;
+          memory.set(a, size);
+          return a;
+        }
+        if (prev < 0) free = memory.get(h-1); else memory.set(prev-1, memory.get(h-1));
+        memory.set(h, available);
+        memory.set(h-available, 0); // parola in eccesso, non deve trattenere puntatori
+        return h;
+      }
+      return -1;
+    }
+
+    void collect() {
+      Memory memory = vm.memory;
+      collections++;
+      marks.clear();
+      int count = 0;
+      // radici: registri, stack e area statica sotto i blocchi (dispatch table)
+      count = mark(vm.tm, count);
+      count = mark(vm.ra, count);
+      for (int a = vm.sp; a < memory.size(); a++) count = mark(memory.get(a), count);
+      for (int a = 0; a < base; a++) count = mark(memory.get(a), count);
+      int live = 0;
+      while (count > 0) {
+        int h = work[--count] + 1;
+        int size = memory.get(h);
+        live += size + 1;
+        for (int a = h - size; a < h; a++) count = mark(memory.get(a), count);
+      }
+      sweep();
+      allocated = 0;
+      budget = Math.max(MIN_GC_WORDS, live);
+    }
+
+    private int mark(int v, int count) {
+      if ((v & ExecuteVM.POINTER_TAG) == 0) return count;
+      v &= ExecuteVM.ADDRESS_MASK;
+      if (v < base || v >= vm.hp || !objects.get(v) || marks.get(v)) return count;
+      marks.set(v);
+      if (count == work.length) work = java.util.Arrays.copyOf(work, count*2);
+      work[count++] = v;
+      return count;
+    }
+
+    // scorre i blocchi dall'alto verso il basso fondendo i liberi adiacenti
+    private void sweep() {
+      Memory memory = vm.memory;
+      free = -1;
+      int runTop = -1, runLow = -1;
+      for (int h = vm.hp - 1; h >= base; ) {
+        int size = Math.abs(memory.get(h));
+        int low = h - size;
+        if (memory.get(h) < 0 || !marks.get(h-1)) {
+          objects.clear(h-1);
+          if (runTop < 0) runTop = h;
+          runLow = low;
+        } else if (runTop >= 0) {
+          release(runTop, runLow);
+          runTop = -1;
+        }
+        h = low - 1;
+      }
+      if (runTop >= 0) release(runTop, runLow);
+    }
+
+    // stato del collector per gli snapshot della VM (vedi Snapshot)
+    void save(IntBuffer out) {
+      out.put(base).put(free).put(allocated).put(budget).put(collections);
+    }
+
+    void load(IntBuffer in) {
+      base = in.get();
+      free = in.get();
+      allocated = in.get();
+      budget = in.get();
+      collections = in.get();
+      if (base < 0) return;
+      // l'insieme degli oggetti si ricostruisce scorrendo i blocchi
+      Memory memory = vm.memory;
+      objects = new BitSet();
+      marks = new BitSet();
+      for (int h = vm.hp - 1; h >= base; h -= Math.abs(memory.get(h)) + 1)
+        if (memory.get(h) > 0) objects.set(h-1);
+    }
+
+    private void release(int top, int low) {
+      Memory memory = vm.memory;
+      if (top == vm.hp - 1) { // blocco libero in cima: restituito abbassando $hp
+        vm.hp = low;
+        return;
+      }
+      memory.set(top, -(top - low));
+      memory.set(top-1, free);
+      free = top;
+    }
+
+}
@@ -0,0 +1,390 @@
+package svm;
+
+import java.io.*;
+import java.lang.invoke.MethodHandles;
+import java.util.*;
+
+// traduce il codice (pre-decodificato) di una funzione, dalla sua label fino al "lra; js"
+// di chiusura, in una classe JVM nascosta che opera direttamente sullo stato di ExecuteVM
+class JitCompiler {
+
+    interface Compiled {
+      void run(ExecuteVM vm);
+    }
+
+    // variabili locali del metodo run generato
+    private static final int VM = 1, MEM = 2, SP = 3, FP = 4, HP = 5, RA = 6, TM = 7, V1 = 8, V2 = 9;
+    private static final int MAX_STACK = 8, MAX_LOCALS = 10;
+
+    private static final String VM_CLASS = "svm/ExecuteVM";
+
+    private final DecodedCode dc;
+    private final int entry;
+    private int end;
+
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final DataOutputStream cp = new DataOutputStream(pool);
+    private final Map<String,Integer> constants = new HashMap<>();
+    private int cpCount = 1;
+
+    private final ByteArrayOutputStream body = new ByteArrayOutputStream();
+    private final DataOutputStream out = new DataOutputStream(body);
+    private final List<int[]> jumps = new ArrayList<>(); // {posizione opcode, indice istruzione target}
+
+    private JitCompiler(DecodedCode dc, int entry) {
+      this.dc = dc;
+      this.entry = entry;
+    }
+
+    // restituisce null se la funzione contiene istruzioni non supportate. Una classe rifiutata
+    // dalla JVM (es. VerifyError) e' un errore del compilatore: viene segnalato su System.err
+    // e la funzione resta interpretata
+    static Compiled compile(DecodedCode dc, int entry) {
+      try {
+        byte[] bytes = new JitCompiler(dc, entry).generate();
+        if (bytes == null) return null;
+        MethodHandles.Lookup lookup = MethodHandles.lookup().defineHiddenClass(bytes, true);
+        return (Compiled) lookup.lookupClass().getDeclaredConstructor().newInstance();
+      } catch (ReflectiveOperationException | LinkageError | IOException e) {
+        System.err.println("JIT: compilation of the function at "+dc.addr[entry]+" failed: "+e);
+        return null;
+      }
+    }
+
+    private byte[] generate() throws IOException {
+      int[] ops = dc.ops;
+      if (ops[entry] != DecodedCode.COPYFP) return null; // non e' l'inizio di una funzione
+      end = entry;
+      while (!(ops[end] == DecodedCode.JS && ops[end-1] == DecodedCode.LOADRA)) {
+        if (ops[end] == DecodedCode.HALT || ops[end] == DecodedCode.NOP) return null;
+        end++;
+      }
+      int[] pos = new int[end-entry+1]; // offset nel bytecode di ogni istruzione
+      reload(true);
+      for (int i = entry; i <= end; i++) {
+        pos[i-entry] = body.size();
+        if (!emit(i)) return null;
+      }
+      if (body.size() > 0xFFFF) return null;
+      byte[] code = body.toByteArray();
+      for (int[] j : jumps) {
+        if (j[1] < entry || j[1] > end) return null; // salto fuori dalla funzione
+        int offset = pos[j[1]-entry] - j[0];
+        if (offset != (short) offset) return null;
+        code[j[0]+1] = (byte) (offset >> 8);
+        code[j[0]+2] = (byte) offset;
+      }
+      return classFile(code);
+    }
+
+    private boolean emit(int i) throws IOException {
+      int arg = dc.args[i];
+      switch ( dc.ops[i] ) {
+        case DecodedCode.PUSH:
+          push(() -> iconst(arg));
+          break;
+        case DecodedCode.POP:
+          iinc(SP, 1);
+          break;
+        case DecodedCode.ADD:
+          binary(0x60); // iadd
+          break;
+        case DecodedCode.SUB:
+          binary(0x64); // isub
+          break;
+        case DecodedCode.MULT:
+          binary(0x68); // imul
+          break;
+        case DecodedCode.DIV:
+          binary(0x6c); // idiv
+          break;
+        case DecodedCode.STOREW:
+          pop(V1);
+          aload(MEM); iload(V1); mask(); aload(MEM); iload(SP); memGet(); memSet(); // memory[v1] = memory[sp]
+          iinc(SP, 1);
+          break;
+        case DecodedCode.LOADW:
+          aload(MEM); iload(SP); aload(MEM); aload(MEM); iload(SP); memGet(); mask(); memGet(); memSet();
+          break;
+        case DecodedCode.BRANCH:
+          jump(0xa7, arg); // goto
+          break;
+        case DecodedCode.BRANCHEQ:
+          pop(V1); pop(V2);
+          iload(V2); iload(V1); jump(0x9f, arg); // if_icmpeq
+          break;
+        case DecodedCode.BRANCHLESSEQ:
+          pop(V1); pop(V2);
+          iload(V2); iload(V1); jump(0xa4, arg); // if_icmple
+          break;
+        case DecodedCode.JS:
+          pop(V1);
+          iconst(dc.addr[i+1]); istore(RA);
+          if (i == end) { // ritorno al chiamante
+            aload(VM); iload(V1); op(0xb5); u2(field("ip"));
+            sync();
+            op(0xb1); // return
+          } else { // chiamata: il callee ritorna qui (ra) con $fp ripristinato
+            sync();
+            aload(VM); iload(V1); op(0xb6); u2(method("call", "(I)V")); // invokevirtual
+            reload(false);
+          }
+          break;
+        case DecodedCode.DISPATCH: // come la chiamata di js, con il target dato dalla cache della VM
+          pop(V1);
+          aload(VM); iconst(dc.addr[i]); iload(V1); iconst(arg); op(0xb6); u2(method("dispatch", "(III)I")); istore(V1);
+          iconst(dc.addr[i+1]); istore(RA);
+          sync();
+          aload(VM); iload(V1); op(0xb6); u2(method("call", "(I)V"));
+          reload(false);
+          break;
+        case DecodedCode.TJS: // chiamata in coda: si esce dal codice compilato e la VM prosegue da ip
+          pop(V1);
+          aload(VM); iload(V1); op(0xb5); u2(field("ip"));
+          sync();
+          op(0xb1); // return
+          break;
+        case DecodedCode.STORERA:
+          pop(RA);
+          break;
+        case DecodedCode.LOADRA:
+          push(() -> iload(RA));
+          break;
+        case DecodedCode.STORETM:
+          pop(TM);
+          break;
+        case DecodedCode.LOADTM:
+          push(() -> iload(TM));
+          break;
+        case DecodedCode.LOADFP:
+          push(() -> iload(FP));
+          break;
+        case DecodedCode.STOREFP:
+          pop(FP);
+          break;
+        case DecodedCode.COPYFP:
+          iload(SP); istore(FP);
+          break;
+        case DecodedCode.STOREHP:
+          pop(HP);
+          checkCollision();
+          break;
+        case DecodedCode.LOADHP:
+          push(() -> iload(HP));
+          break;
+        case DecodedCode.PRINT:
+          sync();
+          aload(VM); iload(SP); op(0xb6); u2(method("print", "(I)V"));
+          break;
+        case DecodedCode.NEW:
+          sync();
+          aload(VM); iconst(arg); op(0xb6); u2(method("newObject", "(I)V"));
+          reload(false);
+          break;
+        case DecodedCode.LOADFPOFF:
+          push(() -> { aload(MEM); iload(FP); iconst(arg); op(0x60); memGet(); });
+          break;
+        case DecodedCode.LOADOFF:
+          aload(MEM); iload(SP); aload(MEM); aload(MEM); iload(SP); memGet(); iconst(arg); op(0x60); mask(); memGet(); memSet();
+          break;
+        case DecodedCode.ADDI:
+          aload(MEM); iload(SP); aload(MEM); iload(SP); memGet(); iconst(arg); op(0x60); memSet();
+          break;
+        case DecodedCode.INCHP:
+          iinc(HP, 1);
+          checkCollision();
+          break;
+        case DecodedCode.DUPTM:
+          aload(MEM); iload(SP); memGet(); istore(TM);
+          push(() -> iload(TM));
+          break;
+        default:
+          return false;
+      }
+      return true;
+    }
+
+    private interface Emitter {
+      void emit() throws IOException;
+    }
+
+    // memory[--sp] = <valore>
+    private void push(Emitter value) throws IOException {
+      checkCollision(1);
+      iinc(SP, -1);
+      aload(MEM); iload(SP); value.emit(); memSet(); // memory.set
+    }
+
+    // local = memory[sp++]
+    private void pop(int local) throws IOException {
+      aload(MEM); iload(SP); memGet(); istore(local); // memory.get
+      iinc(SP, 1);
+    }
+
+    // v1 = memory[sp++]; memory[sp] = memory[sp] <op> v1
+    private void binary(int opcode) throws IOException {
+      pop(V1);
+      aload(MEM); iload(SP); aload(MEM); iload(SP); memGet(); iload(V1); op(opcode); memSet();
+    }
+
+    // registri della VM dai campi dell'oggetto alle variabili locali
+    private void reload(boolean withMemory) throws IOException {
+      if (withMemory) { aload(VM); op(0xb4); u2(field("memory", "Lsvm/Memory;")); op(0x4d); } // astore_2
+      int[] locals = {SP, FP, HP, RA, TM};
+      String[] names = {"sp", "fp", "hp", "ra", "tm"};
+      for (int k = 0; k < locals.length; k++) {
+        aload(VM); op(0xb4); u2(field(names[k])); istore(locals[k]); // getfield
+      }
+    }
+
+    // registri della VM dalle variabili locali ai campi dell'oggetto
+    private void sync() throws IOException {
+      int[] locals = {SP, FP, HP, RA, TM};
+      String[] names = {"sp", "fp", "hp", "ra", "tm"};
+      for (int k = 0; k < locals.length; k++) {
+        aload(VM); iload(locals[k]); op(0xb5); u2(field(names[k])); // putfield
+      }
+    }
+
+    // indirizzo in cima allo stack JVM senza il tag dei puntatori
+    private void mask() throws IOException {
+      iconst(ExecuteVM.ADDRESS_MASK); op(0x7e); // iand
+    }
+
+    // if (hp + words > sp) throw ExecuteVM.collision(hp, sp)
+    private void checkCollision(int words) throws IOException {
+      iload(HP); iconst(words); op(0x60); iload(SP);
+      op(0xa4); u2(3 + 2 + 2 + 3 + 1); // if_icmple oltre il throw
+      iload(HP); iload(SP);
+      op(0xb8); u2(method("collision", "(II)Lsvm/OutOfMemoryException;")); // invokestatic
+      op(0xbf); // athrow
+    }
+
+    private void checkCollision() throws IOException {
+      checkCollision(0);
+    }
+
+    private void jump(int opcode, int target) throws IOException {
+      jumps.add(new int[] {body.size(), target});
+      op(opcode); u2(0);
+    }
+
+    private void iconst(int v) throws IOException {
+      if (v >= -1 && v <= 5) op(0x03 + v);
+      else if (v == (byte) v) { op(0x10); op(v); }
+      else if (v == (short) v) { op(0x11); u2(v); }
+      else { op(0x13); u2(integer(v)); } // ldc_w
+    }
+
+    private void memGet() throws IOException {
+      op(0xb9); u2(interfaceMethod("get", "(I)I")); op(2); op(0); // invokeinterface
+    }
+
+    private void memSet() throws IOException {
+      op(0xb9); u2(interfaceMethod("set", "(II)V")); op(3); op(0);
+    }
+
+    private void iload(int local) throws IOException { op(0x15); op(local); }
+    private void istore(int local) throws IOException { op(0x36); op(local); }
+    private void aload(int local) throws IOException { op(0x19); op(local); }
+    private void iinc(int local, int v) throws IOException { op(0x84); op(local); op(v); }
+    private void op(int b) throws IOException { out.writeByte(b); }
+    private void u2(int v) throws IOException { out.writeShort(v); }
+
+    // COSTANT POOL
+
+    private int constant(String key, int tag, int... refs) throws IOException {
+      Integer index = constants.get(key);
+      if (index != null) return index;
+      cp.writeByte(tag);
+      for (int r : refs) cp.writeShort(r);
+      constants.put(key, cpCount);
+      return cpCount++;
+    }
+
+    private int utf8(String s) throws IOException {
+      Integer index = constants.get("U" + s);
+      if (index != null) return index;
+      cp.writeByte(1);
+      cp.writeUTF(s);
+      constants.put("U" + s, cpCount);
+      return cpCount++;
+    }
+
+    private int integer(int v) throws IOException {
+      Integer index = constants.get("I" + v);
+      if (index != null) return index;
+      cp.writeByte(3);
+      cp.writeInt(v);
+      constants.put("I" + v, cpCount);
+      return cpCount++;
+    }
+
+    private int classRef(String name) throws IOException {
+      return constant("C" + name, 7, utf8(name));
+    }
+
+    private int nameAndType(String name, String type) throws IOException {
+      return constant("N" + name + ":" + type, 12, utf8(name), utf8(type));
+    }
+
+    private int field(String name) throws IOException {
+      return field(name, "I");
+    }
+
+    private int field(String name, String type) throws IOException {
+      return constant("F" + name, 9, classRef(VM_CLASS), nameAndType(name, type));
+    }
+
+    private int method(String name, String type) throws IOException {
+      return constant("M" + name + type, 10, classRef(VM_CLASS), nameAndType(name, type));
+    }
+
+    private int interfaceMethod(String name, String type) throws IOException {
+      return constant("IM" + name + type, 11, classRef("svm/Memory"), nameAndType(name, type));
+    }
+
+    private byte[] classFile(byte[] code) throws IOException {
+      int thisClass = classRef("svm/JitFunction" + dc.addr[entry]);
+      int superClass = classRef("java/lang/Object");
+      int iface = classRef("svm/JitCompiler$Compiled");
+      int objectInit = constant("Minit", 10, superClass, nameAndType("<init>", "()V"));
+      int initName = utf8("<init>"), initType = utf8("()V");
+      int runName = utf8("run"), runType = utf8("(Lsvm/ExecuteVM;)V");
+      int codeAttr = utf8("Code");
+
+      ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      DataOutputStream cf = new DataOutputStream(bytes);
+      cf.writeInt(0xCAFEBABE);
+      cf.writeShort(0);
+      cf.writeShort(49); // senza StackMapTable: verifica per inferenza dei tipi
+      cf.writeShort(cpCount);
+      cf.write(pool.toByteArray());
+      cf.writeShort(0x0030); // final super
+      cf.writeShort(thisClass);
+      cf.writeShort(superClass);
+      cf.writeShort(1);
+      cf.writeShort(iface);
+      cf.writeShort(0); // campi
+      cf.writeShort(2); // metodi
+      // public <init>() { super(); }
+      cf.writeShort(0x0001); cf.writeShort(initName); cf.writeShort(initType);
+      cf.writeShort(1); cf.writeShort(codeAttr);
+      cf.writeInt(12 + 5);
+      cf.writeShort(1); cf.writeShort(1);
+      cf.writeInt(5);
+      cf.writeByte(0x2a); cf.writeByte(0xb7); cf.writeShort(objectInit); cf.writeByte(0xb1);
+      cf.writeShort(0); cf.writeShort(0);
+      // public void run(ExecuteVM vm)
+      cf.writeShort(0x0001); cf.writeShort(runName); cf.writeShort(runType);
+      cf.writeShort(1); cf.writeShort(codeAttr);
+      cf.writeInt(12 + code.length);
+      cf.writeShort(MAX_STACK); cf.writeShort(MAX_LOCALS);
+      cf.writeInt(code.length);
+      cf.write(code);
+      cf.writeShort(0); cf.writeShort(0);
+      cf.writeShort(0); // attributi della classe
+      return bytes.toByteArray();
+    }
+
+}
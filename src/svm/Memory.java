@@ -0,0 +1,12 @@
+package svm;
+
+// memoria a parole della SVM, condivisa da heap e stack
+public interface Memory {
+
+    int get(int address);
+
+    void set(int address, int value);
+
+    int size(); // numero di parole
+
+}
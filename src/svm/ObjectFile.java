@@ -0,0 +1,113 @@
+package svm;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+// programma SVM assemblato in forma binaria, per eseguirlo senza ri-assemblare il testo:
+//   header: MAGIC, VERSION, entry point, parole di codice, numero di label, byte del nome sorgente
+//   codice: le parole di codice con le label gia' risolte
+//   label:  per ognuna indirizzo, lunghezza del nome in byte, nome UTF-8 (allineato a 4 byte)
+//   nome del file sorgente (UTF-8)
+public class ObjectFile {
+
+    private static final int MAGIC = 0x53564d4f; // "SVMO"
+    private static final int VERSION = 1;
+    private static final int HEADER = 6;
+
+    public final int[] code;                  // come SVMParser.code (lungo almeno CODESIZE)
+    public final int codeSize;                // parole effettivamente assemblate
+    public final int entry;
+    public final Map<String,Integer> labels;  // nome -> indirizzo
+    public final String source;
+
+    public ObjectFile(int[] code, int codeSize, int entry, Map<String,Integer> labels, String source) {
+      this.code = code;
+      this.codeSize = codeSize;
+      this.entry = entry;
+      this.labels = labels;
+      this.source = source;
+    }
+
+    // code e codeSize come prodotti da SVMParser (parserASM.code, parserASM.codeSize())
+    public static void write(Path file, int[] code, int codeSize, Map<String,Integer> labels, String source) throws IOException {
+      new ObjectFile(code, codeSize, 0, labels, source).write(file);
+    }
+
+    public void write(Path file) throws IOException {
+      byte[] sourceBytes = source.getBytes(StandardCharsets.UTF_8);
+      Map<byte[],Integer> names = new LinkedHashMap<>();
+      int size = (HEADER + codeSize) * 4 + align(sourceBytes.length);
+      for (Map.Entry<String,Integer> label : labels.entrySet()) {
+        byte[] bytes = label.getKey().getBytes(StandardCharsets.UTF_8);
+        names.put(bytes, label.getValue());
+        size += 8 + align(bytes.length);
+      }
+      ByteBuffer out = ByteBuffer.allocate(size);
+      out.putInt(MAGIC).putInt(VERSION).putInt(entry).putInt(codeSize).putInt(labels.size()).putInt(sourceBytes.length);
+      out.asIntBuffer().put(code, 0, codeSize);
+      out.position(out.position() + codeSize * 4);
+      for (Map.Entry<byte[],Integer> name : names.entrySet()) {
+        byte[] bytes = name.getKey();
+        out.putInt(name.getValue()).putInt(bytes.length).put(bytes);
+        out.position(out.position() + align(bytes.length) - bytes.length);
+      }
+      out.put(sourceBytes);
+      out.position(0);
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        while (out.hasRemaining()) channel.write(out);
+      }
+    }
+
+    // il file viene mappato e le parole di codice copiate in blocco nell'array per la VM
+    public static ObjectFile load(Path file) throws IOException {
+      ByteBuffer in;
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+        in = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+      }
+      try {
+        if (in.getInt() != MAGIC || in.getInt() != VERSION) throw new IOException("Not an SVM object file: " + file);
+        int entry = in.getInt();
+        int codeSize = in.getInt();
+        int labelCount = in.getInt();
+        int sourceLength = in.getInt();
+        int[] code = new int[Math.max(codeSize, ExecuteVM.CODESIZE)];
+        IntBuffer words = in.asIntBuffer();
+        words.get(code, 0, codeSize);
+        in.position(in.position() + codeSize * 4);
+        Map<String,Integer> labels = new HashMap<>();
+        for (int k = 0; k < labelCount; k++) {
+          int address = in.getInt();
+          byte[] name = new byte[in.getInt()];
+          in.get(name);
+          in.position(in.position() + align(name.length) - name.length);
+          labels.put(new String(name, StandardCharsets.UTF_8), address);
+        }
+        byte[] source = new byte[sourceLength];
+        in.get(source);
+        return new ObjectFile(code, codeSize, entry, labels, new String(source, StandardCharsets.UTF_8));
+      } catch (BufferUnderflowException | IndexOutOfBoundsException | IllegalArgumentException e) {
+        throw new IOException("Corrupted SVM object file: " + file, e);
+      }
+    }
+
+    // VM pronta a eseguire il programma dall'entry point
+    public ExecuteVM createVM() {
+      return createVM(ExecuteVM.MEMSIZE);
+    }
+
+    public ExecuteVM createVM(int memSize) {
+      ExecuteVM vm = new ExecuteVM(code, memSize);
+      vm.ip = entry;
+      return vm;
+    }
+
+    private static int align(int bytes) {
+      return (bytes + 3) & ~3;
+    }
+
+}
@@ -0,0 +1,11 @@
+package svm;
+
+public class OutOfMemoryException extends RuntimeException {
+
+	private static final long serialVersionUID = 1L;
+
+	public OutOfMemoryException(String message) {
+		super(message);
+	}
+
+}
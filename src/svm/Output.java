@@ -0,0 +1,12 @@
+package svm;
+
+// destinazione dell'output dell'istruzione print
+public interface Output {
+
+    void print(int value);
+
+    void printEmpty(); // print a stack vuoto
+
+    void flush(); // chiamata all'halt (e se l'esecuzione termina con un errore)
+
+}
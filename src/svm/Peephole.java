@@ -0,0 +1,177 @@
+package svm;
+
+import java.util.*;
+
+// ottimizzazione peephole del codice prodotto dalla generazione di codice, prima del link:
+// le regole riscrivono brevi sequenze di istruzioni consecutive e vengono riapplicate finche'
+// qualcuna cambia il codice (punto fisso). Ogni istruzione tolta e' un'istruzione in meno a
+// ogni esecuzione (salvo il codice irraggiungibile, che accorcia solo il codice).
+//
+// Una sequenza non contiene mai la definizione di una label (ne' una riga vuota del dump): su
+// una label puo' arrivare un salto, quindi le istruzioni prima e dopo non sono consecutive
+// in ogni esecuzione. Fanno eccezione le regole sui salti, che guardano le label stesse e
+// contano i riferimenti (b, beq, bleq e push label) per toglierne una solo se nessun altro la usa.
+public final class Peephole {
+
+    private final List<Code> code;                              // codice del passo, non cambia
+    private final List<Code> out;                               // codice riscritto dal passo
+    private final Map<String,Integer> labels = new HashMap<>(); // label -> posizione in code
+    private final Map<String,Integer> refs = new HashMap<>();   // label -> numero di riferimenti in code
+    private int next;                                           // prima istruzione dopo l'ultima sequenza riscritta
+
+    private Peephole(List<Code> code) {
+      this.code = code;
+      out = new ArrayList<>(code.size());
+      index();
+    }
+
+    // ogni passo scorre il codice una volta e lo ricopre con le sequenze riscritte, che non si
+    // sovrappongono: quello che una riscrittura rende possibile (es. una costante piegata seguita
+    // da un altro push; add) viene riscritto al passo successivo
+    public static Code optimize(Code c) {
+      if (c == null) return null;
+      List<Code> code = new ArrayList<>(c.flatten());
+      boolean changed = true;
+      while (changed) {
+        Peephole p = new Peephole(code);
+        changed = p.pass();
+        code = p.out;
+      }
+      return Code.join(code.toArray(new Code[0]));
+    }
+
+    private boolean pass() {
+      boolean changed = false;
+      int i = 0;
+      while (i < code.size())
+        if (rewrite(i)) {
+          changed = true;
+          i = next;
+        } else out.add(code.get(i++));
+      return changed;
+    }
+
+    // le mappe descrivono code per tutto il passo: una sequenza tolta lascia al piu' riferimenti
+    // in eccesso (e le label restano tolte solo con l'unico riferimento nella stessa sequenza),
+    // e un salto spostato con finalTarget va a una label gia' raggiunta da un b in code
+    private void index() {
+      for (int i = 0; i < code.size(); i++) {
+        Code c = code.get(i);
+        if (c.op == Code.LABEL) labels.put(c.label, i);
+        else if (c.label != null) refs.merge(c.label, 1, Integer::sum);
+      }
+    }
+
+    // REGOLE
+
+    private boolean rewrite(int i) {
+      Integer a = num(i), b = num(i+1);
+
+      // elementi neutri: push 0; add  push 0; sub  push 1; mult  push 1; div
+      if (a != null && a == 0 && (is(i+1, SVMParser.ADD) || is(i+1, SVMParser.SUB))) return replace(i, 2);
+      if (a != null && a == 1 && (is(i+1, SVMParser.MULT) || is(i+1, SVMParser.DIV))) return replace(i, 2);
+
+      // operazioni tra costanti: push a; push b; op  ->  push (a op b)
+      if (a != null && b != null) {
+        if (is(i+2, SVMParser.ADD)) return replace(i, 3, Code.push(a + b));
+        if (is(i+2, SVMParser.SUB)) return replace(i, 3, Code.push(a - b));
+        if (is(i+2, SVMParser.MULT)) return replace(i, 3, Code.push(a * b));
+        if (is(i+2, SVMParser.DIV) && b != 0) return replace(i, 3, Code.push(a / b));
+        // salto condizionato su costanti: sempre o mai
+        if (is(i+2, SVMParser.BRANCHEQ)) return a.equals(b) ? replace(i, 3, Code.b(code.get(i+2).label)) : replace(i, 3);
+        if (is(i+2, SVMParser.BRANCHLESSEQ)) return a <= b ? replace(i, 3, Code.b(code.get(i+2).label)) : replace(i, 3);
+      }
+
+      // push a; sub  ->  push -a; add  (con il push diventa un solo ADDI nel codice pre-decodificato)
+      if (a != null && a != Integer.MIN_VALUE && is(i+1, SVMParser.SUB)) return replace(i, 2, Code.push(-a), Code.add());
+
+      // push a; add; push b; add  ->  push (a+b); add
+      if (a != null && is(i+1, SVMParser.ADD) && num(i+2) != null && is(i+3, SVMParser.ADD))
+        return replace(i, 4, Code.push(a + num(i+2)), Code.add());
+
+      // doppia negazione: push -1; mult; push -1; mult  e  !!x (push -1; mult; push 1; add due volte)
+      if (isNot(i) && isNot(i+4)) return replace(i, 8);
+      if (a != null && a == -1 && is(i+1, SVMParser.MULT) && num(i+2) != null && num(i+2) == -1 && is(i+3, SVMParser.MULT))
+        return replace(i, 4);
+
+      // valore messo sullo stack e subito tolto
+      if (is(i+1, SVMParser.POP) && (is(i, SVMParser.PUSH) || is(i, SVMParser.LOADFP) || is(i, SVMParser.LOADHP)
+          || is(i, SVMParser.LOADRA) || is(i, SVMParser.LOADTM))) return replace(i, 2);
+
+      // stm; ltm; stm  ->  stm  (il valore torna in $tm)
+      if (is(i, SVMParser.STORETM) && is(i+1, SVMParser.LOADTM) && is(i+2, SVMParser.STORETM)) return replace(i, 2);
+
+      Code c = code.get(i);
+      if (isJump(c)) {
+        // salto all'istruzione successiva
+        if (c.op == SVMParser.BRANCH)
+          for (int j = i+1; j < code.size() && code.get(j).op < 0; j++)
+            if (c.label.equals(code.get(j).label) && code.get(j).op == Code.LABEL) return replace(i, 1);
+        // salto a un b: direttamente alla sua destinazione
+        String target = finalTarget(c.label);
+        if (target != null && !target.equals(c.label)) return replace(i, 1, new Code(c.op, 0, target));
+        // confronto trasformato in 0/1 e subito confrontato con 1:
+        // bxx L1; push 0; b L2; L1:; push 1; L2:; push 1; beq L3  ->  bxx L3
+        if (c.op != SVMParser.BRANCH && num(i+1) != null && num(i+1) == 0 && is(i+2, SVMParser.BRANCH)
+            && isLabel(i+3, c.label) && num(i+4) != null && num(i+4) == 1 && isLabel(i+5, code.get(i+2).label)
+            && num(i+6) != null && num(i+6) == 1 && is(i+7, SVMParser.BRANCHEQ)
+            && refs.get(c.label) == 1 && refs.get(code.get(i+2).label) == 1)
+          return replace(i, 8, new Code(c.op, 0, code.get(i+7).label));
+      }
+
+      // codice irraggiungibile dopo b, tjs e halt, fino alla prossima label; il "lra; js" che
+      // chiude una funzione resta, perche' ne delimita il codice (JitCompiler)
+      if (c.op == SVMParser.BRANCH || c.op == SVMParser.TJS || c.op == SVMParser.HALT) {
+        int j = i+1;
+        while (j < code.size() && code.get(j).op > 0 && !(is(j, SVMParser.LOADRA) && is(j+1, SVMParser.JS))) j++;
+        if (j > i+1) return replace(i, j-i, c);
+      }
+
+      return false;
+    }
+
+    // SUPPORTO
+
+    private boolean is(int i, int op) {
+      return i < code.size() && code.get(i).op == op;
+    }
+
+    // valore di un push di una costante (null altrimenti)
+    private Integer num(int i) {
+      return is(i, SVMParser.PUSH) && code.get(i).label == null ? code.get(i).arg : null;
+    }
+
+    private boolean isLabel(int i, String label) {
+      return is(i, Code.LABEL) && code.get(i).label.equals(label);
+    }
+
+    private static boolean isJump(Code c) {
+      return c.op == SVMParser.BRANCH || c.op == SVMParser.BRANCHEQ || c.op == SVMParser.BRANCHLESSEQ;
+    }
+
+    // not booleano generato per NotNode: push -1; mult; push 1; add
+    private boolean isNot(int i) {
+      return num(i) != null && num(i) == -1 && is(i+1, SVMParser.MULT)
+          && num(i+2) != null && num(i+2) == 1 && is(i+3, SVMParser.ADD);
+    }
+
+    // label a cui si arriva seguendo i b posti subito dopo label (null se formano un ciclo)
+    private String finalTarget(String label) {
+      Set<String> seen = new HashSet<>();
+      while (seen.add(label)) {
+        int j = labels.get(label);
+        while (j < code.size() && code.get(j).op < 0) j++;
+        if (!is(j, SVMParser.BRANCH)) return label;
+        label = code.get(j).label;
+      }
+      return null;
+    }
+
+    // sostituisce le len istruzioni da i con quelle date
+    private boolean replace(int i, int len, Code... with) {
+      out.addAll(Arrays.asList(with));
+      next = i + len;
+      return true;
+    }
+
+}
@@ -0,0 +1,147 @@
+package svm;
+
+import java.io.PrintStream;
+import java.util.*;
+
+// profilo dell'esecuzione di cpu(): istruzioni eseguite per opcode e per funzione,
+// chiamate per funzione. Il profiler e' informato solo dei trasferimenti di controllo
+// (salti, js, halt): conta quante volte l'esecuzione entra in ogni indirizzo, e siccome
+// da un ingresso si eseguono in sequenza tutte le istruzioni fino al primo salto, da
+// questi conteggi ricava alla fine quante volte e' stata eseguita ogni istruzione.
+// Le funzioni sono individuate dalle label "function" (FOOLlib.freshFunLabel): il codice
+// di una funzione va dalla sua label alla label successiva.
+public class Profiler {
+
+    // nomi per opcode denso (DecodedCode)
+    private static final String[] NAMES = new String[DecodedCode.TJS + 1];
+    static {
+      String[] names = { "push", "pop", "add", "sub", "mult", "div", "sw", "lw", "b", "beq", "bleq", "js",
+          "lra", "sra", "ltm", "stm", "lfp", "sfp", "cfp", "lhp", "shp", "print", "halt", "nop" };
+      System.arraycopy(names, 0, NAMES, 0, names.length);
+      NAMES[DecodedCode.NEW] = "new";
+      NAMES[DecodedCode.DISPATCH] = "dispatch";
+      NAMES[DecodedCode.TJS] = "tjs";
+    }
+
+    private final DecodedCode decoded; // istruzioni non fuse, per indirizzo e opcode
+    private final PrintStream out;
+    private final long[] entries;      // ingressi per indirizzo
+
+    private final int[] functionStart; // indirizzi delle funzioni, crescenti ([0] e' il main)
+    private final String[] functionName;
+    private final long[] calls;
+    private final long[] total;        // istruzioni incluse le funzioni chiamate
+    private final int[] active;        // attivazioni in corso (per non contare due volte la ricorsione)
+
+    // pila delle chiamate in corso: funzione e istruzioni eseguite all'ingresso
+    private int[] stackFunction = new int[64];
+    private long[] stackStart = new long[64];
+    private int depth = 0;
+
+    public Profiler(int[] code, Map<String,Integer> labels, PrintStream out) {
+      decoded = new DecodedCode(code, false);
+      this.out = out;
+      entries = new long[code.length + 1];
+      TreeMap<Integer,String> functions = new TreeMap<>();
+      for (Map.Entry<String,Integer> label : labels.entrySet())
+        if (label.getKey().startsWith("function")) functions.put(label.getValue(), label.getKey());
+      functions.putIfAbsent(0, "(main)");
+      int n = functions.size();
+      functionStart = new int[n];
+      functionName = new String[n];
+      int f = 0;
+      for (Map.Entry<Integer,String> function : functions.entrySet()) {
+        functionStart[f] = function.getKey();
+        functionName[f++] = function.getValue();
+      }
+      calls = new long[n];
+      total = new long[n];
+      active = new int[n];
+    }
+
+    // l'esecuzione riprende da address dopo un salto (o all'avvio)
+    void jump(int address) {
+      entries[address]++;
+    }
+
+    // js verso address: chiamata se address e' l'inizio di una funzione, altrimenti ritorno
+    void js(int address, long instructions) {
+      entries[address]++;
+      int f = Arrays.binarySearch(functionStart, address);
+      if (f > 0) enter(f, instructions);
+      else leave(instructions);
+    }
+
+    // chiamata in coda verso address: la funzione chiamata prende il posto di quella corrente
+    void tailJs(int address, long instructions) {
+      entries[address]++;
+      int f = Arrays.binarySearch(functionStart, address);
+      leave(instructions);
+      if (f > 0) enter(f, instructions);
+    }
+
+    private void enter(int f, long instructions) {
+      calls[f]++;
+      active[f]++;
+      if (depth == stackFunction.length) {
+        stackFunction = Arrays.copyOf(stackFunction, depth * 2);
+        stackStart = Arrays.copyOf(stackStart, depth * 2);
+      }
+      stackFunction[depth] = f;
+      stackStart[depth++] = instructions;
+    }
+
+    private void leave(long instructions) {
+      if (depth == 0) return;
+      int f = stackFunction[--depth];
+      if (--active[f] == 0) total[f] += instructions - stackStart[depth];
+    }
+
+    void halt(long instructions) {
+      total[0] = instructions;
+      calls[0] = 1;
+      report();
+    }
+
+    // report ordinato per costo: funzioni per istruzioni eseguite nel loro codice, opcode per numero di esecuzioni
+    public void report() {
+      long[] opcodeCount = new long[NAMES.length];
+      long[] self = new long[functionStart.length];
+      long count = 0, all = 0;
+      int f = 0;
+      for (int i = 0; i < decoded.size; i++) {
+        int address = decoded.addr[i];
+        count += entries[address];
+        while (f + 1 < functionStart.length && address >= functionStart[f+1]) f++;
+        int op = decoded.ops[i];
+        opcodeCount[op] += count;
+        self[f] += count;
+        all += count;
+        if (DecodedCode.isBranch(op) || op == DecodedCode.JS || op == DecodedCode.DISPATCH
+            || op == DecodedCode.TJS || op == DecodedCode.HALT) count = 0;
+      }
+      out.println("Profile: " + all + " instructions");
+      out.println();
+      out.printf("%-14s %12s %14s %7s %14s%n", "function", "calls", "self", "self%", "total");
+      for (int k : sortedByCost(self))
+        if (self[k] > 0 || calls[k] > 0)
+          out.printf("%-14s %12d %14d %6.2f%% %14d%n", functionName[k], calls[k], self[k], percent(self[k], all), total[k]);
+      out.println();
+      out.printf("%-14s %14s %7s%n", "opcode", "count", "%");
+      for (int k : sortedByCost(opcodeCount))
+        if (opcodeCount[k] > 0) out.printf("%-14s %14d %6.2f%%%n", NAMES[k], opcodeCount[k], percent(opcodeCount[k], all));
+      out.flush();
+    }
+
+    private static Integer[] sortedByCost(long[] cost) {
+      Integer[] order = new Integer[cost.length];
+      for (int k = 0; k < order.length; k++) order[k] = k;
+      Arrays.sort(order, (a, b) -> Long.compare(cost[b], cost[a]));
+      return order;
+    }
+
+    private static double percent(long part, long all) {
+      return all == 0 ? 0 : 100.0 * part / all;
+    }
+
+}
@@ -0,0 +1,184 @@
+package svm;
+
+import java.util.*;
+
+// codice per RegisterVM, prodotto da compiler.RegisterCodeGenerationASTVisitor: come Code,
+// un frammento composto referenzia i suoi pezzi e link() lo linearizza risolvendo le label.
+//
+// Ogni istruzione occupa WIDTH parole: opcode e tre operandi (a, b, c). Un registro e' una
+// parola del frame corrente, indicata dal suo offset rispetto a $fp (rN = memory[fp+N]):
+// r0 e' l'Access Link, r1..rP i parametri, da r-2 in giu' le dichiarazioni locali e poi
+// i temporanei (lo stesso layout del frame della SVM a stack).
+//
+//   halt                        li rd, k|label          mov rd, ra
+//   add/sub/mul/div rd, ra, rb  addi rd, ra, k          seq/sle rd, ra, rb (0/1)
+//   not rd, ra                  lw rd, ra, k  (rd = memory[ra+k])      mfp rd (rd = $fp)
+//   b label                     beq/bne/ble/bgt ra, rb, label
+//   call rd, label, rb          callm rd, k, rb  (metodo k della dispatch table dell'oggetto in rb)
+//   tcall label, rb, p          tcallm k, rb, p  (chiamata in coda da una funzione con p parametri)
+//   enter p, n                  ret ra, p
+//   new rd, rb, n               hpush ra  (memory[hp++] = ra)          print ra
+//
+// Una chiamata passa Access Link e argomenti in registri consecutivi del chiamante: rb, rb-1,
+// ..., rb-p; il risultato arriva in rd al ritorno. enter (prima istruzione di ogni funzione)
+// indica il numero di parametri e le parole del frame sotto $fp. new prende i campi da rb in giu'
+// e il dispatch pointer nel registro che segue l'ultimo campo
+public final class RegisterCode {
+
+    public static final int WIDTH = 4;
+
+    static final int HALT = 0, LI = 1, MOV = 2, ADD = 3, ADDI = 4, SUB = 5, MUL = 6, DIV = 7,
+        SEQ = 8, SLE = 9, NOT = 10, LW = 11, MFP = 12, B = 13, BEQ = 14, BNE = 15, BLE = 16, BGT = 17,
+        CALL = 18, CALLM = 19, TCALL = 20, TCALLM = 21, ENTER = 22, RET = 23, NEW = 24, HPUSH = 25, PRINT = 26;
+
+    private static final String[] MNEMONICS = {"halt", "li", "mov", "add", "addi", "sub", "mul", "div",
+        "seq", "sle", "not", "lw", "mfp", "b", "beq", "bne", "ble", "bgt",
+        "call", "callm", "tcall", "tcallm", "enter", "ret", "new", "hpush", "print"};
+
+    // operandi per opcode: 'r' registro, 'k' intero, 'l' label (o intero se risolta)
+    private static final String[] OPERANDS = {"", "rl", "rr", "rrr", "rrk", "rrr", "rrr", "rrr",
+        "rrr", "rrr", "rr", "rrk", "r", "l", "rrl", "rrl", "rrl", "rrl",
+        "rlr", "rkr", "lrk", "krk", "kk", "rk", "rrk", "r", "r"};
+
+    private static final int LABEL = -1; // pseudo-istruzione: definizione di label
+
+    private final int op;       // opcode, LABEL o 0 con parts per un frammento composto
+    private final int[] args;   // operandi a, b, c
+    private final String label; // operando simbolico (al posto di quello di tipo 'l'), o la label definita
+    private final RegisterCode[] parts;
+    private final int size;     // parole di codice
+
+    private RegisterCode(int op, String label, int... args) {
+      this.op = op;
+      this.args = args;
+      this.label = label;
+      this.parts = null;
+      this.size = op == LABEL ? 0 : WIDTH;
+    }
+
+    private RegisterCode(RegisterCode[] parts, int size) {
+      this.op = 0;
+      this.args = null;
+      this.label = null;
+      this.parts = parts;
+      this.size = size;
+    }
+
+    // concatenazione dei frammenti (argomenti null ignorati; null se sono tutti null)
+    public static RegisterCode join(RegisterCode... parts) {
+      int count = 0, size = 0;
+      RegisterCode last = null;
+      for (RegisterCode c : parts)
+        if (c != null) {
+          count++;
+          size += c.size;
+          last = c;
+        }
+      if (count <= 1) return last;
+      RegisterCode[] nonNull = new RegisterCode[count];
+      count = 0;
+      for (RegisterCode c : parts) if (c != null) nonNull[count++] = c;
+      return new RegisterCode(nonNull, size);
+    }
+
+    // ISTRUZIONI
+
+    public static RegisterCode halt() { return new RegisterCode(HALT, null, 0, 0, 0); }
+    public static RegisterCode li(int rd, int k) { return new RegisterCode(LI, null, rd, k, 0); }
+    public static RegisterCode li(int rd, String label) { return new RegisterCode(LI, label, rd, 0, 0); }
+    public static RegisterCode mov(int rd, int ra) { return new RegisterCode(MOV, null, rd, ra, 0); }
+    public static RegisterCode add(int rd, int ra, int rb) { return new RegisterCode(ADD, null, rd, ra, rb); }
+    public static RegisterCode addi(int rd, int ra, int k) { return new RegisterCode(ADDI, null, rd, ra, k); }
+    public static RegisterCode sub(int rd, int ra, int rb) { return new RegisterCode(SUB, null, rd, ra, rb); }
+    public static RegisterCode mul(int rd, int ra, int rb) { return new RegisterCode(MUL, null, rd, ra, rb); }
+    public static RegisterCode div(int rd, int ra, int rb) { return new RegisterCode(DIV, null, rd, ra, rb); }
+    public static RegisterCode seq(int rd, int ra, int rb) { return new RegisterCode(SEQ, null, rd, ra, rb); }
+    public static RegisterCode sle(int rd, int ra, int rb) { return new RegisterCode(SLE, null, rd, ra, rb); }
+    public static RegisterCode not(int rd, int ra) { return new RegisterCode(NOT, null, rd, ra, 0); }
+    public static RegisterCode lw(int rd, int ra, int k) { return new RegisterCode(LW, null, rd, ra, k); }
+    public static RegisterCode mfp(int rd) { return new RegisterCode(MFP, null, rd, 0, 0); }
+    public static RegisterCode b(String label) { return new RegisterCode(B, label, 0, 0, 0); }
+    public static RegisterCode beq(int ra, int rb, String label) { return new RegisterCode(BEQ, label, ra, rb, 0); }
+    public static RegisterCode bne(int ra, int rb, String label) { return new RegisterCode(BNE, label, ra, rb, 0); }
+    public static RegisterCode ble(int ra, int rb, String label) { return new RegisterCode(BLE, label, ra, rb, 0); }
+    public static RegisterCode bgt(int ra, int rb, String label) { return new RegisterCode(BGT, label, ra, rb, 0); }
+    public static RegisterCode call(int rd, String label, int rb) { return new RegisterCode(CALL, label, rd, 0, rb); }
+    public static RegisterCode callm(int rd, int k, int rb) { return new RegisterCode(CALLM, null, rd, k, rb); }
+    public static RegisterCode tcall(String label, int rb, int p) { return new RegisterCode(TCALL, label, 0, rb, p); }
+    public static RegisterCode tcallm(int k, int rb, int p) { return new RegisterCode(TCALLM, null, k, rb, p); }
+    public static RegisterCode enter(int p, int n) { return new RegisterCode(ENTER, null, p, n, 0); }
+    public static RegisterCode ret(int ra, int p) { return new RegisterCode(RET, null, ra, p, 0); }
+    public static RegisterCode newObject(int rd, int rb, int n) { return new RegisterCode(NEW, null, rd, rb, n); }
+    public static RegisterCode hpush(int ra) { return new RegisterCode(HPUSH, null, ra, 0, 0); }
+    public static RegisterCode print(int ra) { return new RegisterCode(PRINT, null, ra, 0, 0); }
+    public static RegisterCode label(String label) { return new RegisterCode(LABEL, label); }
+
+    // LINK
+
+    // parole di codice per RegisterVM, con le label risolte
+    public int[] link() {
+      List<RegisterCode> instructions = flatten();
+      Map<String,Integer> labels = new HashMap<>();
+      int address = 0;
+      for (RegisterCode c : instructions) {
+        if (c.op == LABEL && labels.put(c.label, address) != null)
+          throw new IllegalStateException("Label " + c.label + " defined twice");
+        address += c.size;
+      }
+      int[] code = new int[size];
+      int i = 0;
+      for (RegisterCode c : instructions) {
+        if (c.op == LABEL) continue;
+        code[i] = c.op;
+        for (int k = 0; k < 3; k++) {
+          code[i+1+k] = c.args[k];
+          if (c.label != null && k < OPERANDS[c.op].length() && OPERANDS[c.op].charAt(k) == 'l') {
+            Integer target = labels.get(c.label);
+            if (target == null) throw new IllegalStateException("Undefined label " + c.label);
+            code[i+1+k] = target;
+          }
+        }
+        i += WIDTH;
+      }
+      return code;
+    }
+
+    // testo equivalente, una istruzione per riga (registri come r<offset>)
+    @Override
+    public String toString() {
+      StringBuilder s = new StringBuilder();
+      for (RegisterCode c : flatten()) {
+        if (s.length() > 0) s.append('\n');
+        if (c.op == LABEL) {
+          s.append(c.label).append(':');
+          continue;
+        }
+        s.append(MNEMONICS[c.op]);
+        String operands = OPERANDS[c.op];
+        for (int k = 0; k < operands.length(); k++) {
+          s.append(k == 0 ? " " : ", ");
+          char kind = operands.charAt(k);
+          if (kind == 'l' && c.label != null) s.append(c.label);
+          else s.append(kind == 'r' ? "r" : "").append(c.args[k]);
+        }
+      }
+      return s.toString();
+    }
+
+    // istruzioni nell'ordine di emissione (visita iterativa, come in Code)
+    private List<RegisterCode> flatten() {
+      List<RegisterCode> instructions = new ArrayList<>();
+      Deque<RegisterCode> stack = new ArrayDeque<>();
+      stack.push(this);
+      while (!stack.isEmpty()) {
+        RegisterCode c = stack.pop();
+        if (c.parts == null) {
+          instructions.add(c);
+        } else {
+          for (int k = c.parts.length - 1; k >= 0; k--) stack.push(c.parts[k]);
+        }
+      }
+      return instructions;
+    }
+
+}
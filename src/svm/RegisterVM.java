@@ -0,0 +1,195 @@
+package svm;
+
+import static svm.RegisterCode.*;
+
+// macchina a registri per il codice di RegisterCode: ogni istruzione legge e scrive direttamente
+// i registri del frame (parole di memoria a offset fissi da $fp), quindi un'operazione del
+// sorgente e' una sola istruzione invece di una sequenza di push/pop sullo stack.
+//
+// Memoria, $sp e $hp sono quelli di una ExecuteVM (senza codice), di cui si usa l'heap: new
+// alloca con lo stesso collector conservativo, che trova le radici nei frame sullo stack.
+//
+// Frame di una funzione con p parametri (dall'alto): Control Link in fp+p+1, argomenti in
+// fp+p..fp+1, Access Link in fp, indirizzo di ritorno in fp-1, poi dichiarazioni locali e
+// temporanei fino a $sp. Il frame del programma principale (senza parametri) e' in cima alla memoria
+public class RegisterVM {
+
+    private final int[] code;
+    private final ExecuteVM machine;
+    private Output output = new StreamOutput(System.out);
+    private int[] scratch = new int[8]; // argomenti di una chiamata in coda, copiati prima di sovrascrivere il frame
+    private long instructions;
+
+    public RegisterVM(int[] code) {
+      this(code, ExecuteVM.MEMSIZE);
+    }
+
+    public RegisterVM(int[] code, int memSize) {
+      this(code, new ArrayMemory(ExecuteVM.checkMemorySize(memSize)));
+    }
+
+    public RegisterVM(int[] code, Memory memory) {
+      this.code = code;
+      this.machine = new ExecuteVM(new int[0], memory);
+    }
+
+    public void setOutput(Output output) {
+      this.output = output;
+    }
+
+    public long getInstructionCount() {
+      return instructions;
+    }
+
+    public void run() {
+      try {
+        interpret();
+      } finally {
+        output.flush();
+      }
+    }
+
+    private void interpret() {
+      Memory memory = machine.memory;
+      int[] code = this.code;
+      int ip = 0;
+      int fp = memory.size() - 2;
+      int sp = fp;
+      long count = 0;
+      try {
+        while (true) {
+          int op = code[ip], a = code[ip+1], b = code[ip+2], c = code[ip+3];
+          ip += WIDTH;
+          count++;
+          switch (op) {
+            case HALT:
+              machine.sp = sp;
+              return;
+            case LI:
+              memory.set(fp+a, b);
+              break;
+            case MOV:
+              memory.set(fp+a, memory.get(fp+b));
+              break;
+            case ADD:
+              memory.set(fp+a, memory.get(fp+b) + memory.get(fp+c));
+              break;
+            case ADDI:
+              memory.set(fp+a, memory.get(fp+b) + c);
+              break;
+            case SUB:
+              memory.set(fp+a, memory.get(fp+b) - memory.get(fp+c));
+              break;
+            case MUL:
+              memory.set(fp+a, memory.get(fp+b) * memory.get(fp+c));
+              break;
+            case DIV:
+              memory.set(fp+a, memory.get(fp+b) / memory.get(fp+c));
+              break;
+            case SEQ:
+              memory.set(fp+a, memory.get(fp+b) == memory.get(fp+c) ? 1 : 0);
+              break;
+            case SLE:
+              memory.set(fp+a, memory.get(fp+b) <= memory.get(fp+c) ? 1 : 0);
+              break;
+            case NOT:
+              memory.set(fp+a, 1 - memory.get(fp+b));
+              break;
+            case LW:
+              memory.set(fp+a, memory.get((memory.get(fp+b) + c) & ExecuteVM.ADDRESS_MASK));
+              break;
+            case MFP:
+              memory.set(fp+a, fp);
+              break;
+            case B:
+              ip = a;
+              break;
+            case BEQ:
+              if (memory.get(fp+a) == memory.get(fp+b)) ip = c;
+              break;
+            case BNE:
+              if (memory.get(fp+a) != memory.get(fp+b)) ip = c;
+              break;
+            case BLE:
+              if (memory.get(fp+a) <= memory.get(fp+b)) ip = c;
+              break;
+            case BGT:
+              if (memory.get(fp+a) > memory.get(fp+b)) ip = c;
+              break;
+            case CALL:
+            case CALLM: {
+              int target = op == CALL ? b : method(memory, memory.get(fp+c), b);
+              int p = code[target+1]; // dalla enter della funzione chiamata
+              int callee = sp - p - 2;
+              if (callee - 1 < machine.hp) throw ExecuteVM.collision(machine.hp, callee - 1); // prima di scrivere il frame
+              memory.set(callee+p+1, fp); // Control Link
+              for (int j = 0; j <= p; j++) memory.set(callee+j, memory.get(fp+c-j)); // Access Link e argomenti
+              memory.set(callee-1, ip); // indirizzo di ritorno
+              fp = callee;
+              ip = target;
+              break;
+            }
+            case TCALL:
+            case TCALLM: {
+              // il nuovo frame prende il posto di quello corrente, di cui restano Control Link
+              // e indirizzo di ritorno (il risultato andra' direttamente al chiamante)
+              int target = op == TCALL ? a : method(memory, memory.get(fp+b), a);
+              int p = code[target+1];
+              if (scratch.length <= p) scratch = new int[2*p+1];
+              for (int j = 0; j <= p; j++) scratch[j] = memory.get(fp+b-j);
+              int top = fp + c + 2; // $sp del chiamante
+              int controlLink = memory.get(fp+c+1), ret = memory.get(fp-1);
+              fp = top - p - 2;
+              if (fp - 1 < machine.hp) throw ExecuteVM.collision(machine.hp, fp - 1); // con piu' parametri il frame scende
+              memory.set(fp+p+1, controlLink);
+              for (int j = 0; j <= p; j++) memory.set(fp+j, scratch[j]);
+              memory.set(fp-1, ret);
+              ip = target;
+              break;
+            }
+            case ENTER:
+              sp = fp - b;
+              if (sp < machine.hp) throw ExecuteVM.collision(machine.hp, sp);
+              break;
+            case RET: {
+              int v = memory.get(fp+a);
+              int ret = memory.get(fp-1);
+              sp = fp + b + 2;
+              fp = memory.get(fp+b+1);
+              ip = ret;
+              memory.set(fp+code[ret-WIDTH+1], v); // registro destinazione della call
+              break;
+            }
+            case NEW: {
+              // campi e dispatch pointer sotto $sp, nell'ordine dello stack della SVM,
+              // poi l'allocazione dell'heap (che puo' far partire il collector)
+              if (sp - c - 1 < machine.hp) throw ExecuteVM.collision(machine.hp, sp - c - 1);
+              machine.sp = sp - c - 1;
+              memory.set(machine.sp, memory.get(fp+b-c));
+              for (int k = 0; k < c; k++) memory.set(machine.sp+1+k, memory.get(fp+b-c+1+k));
+              machine.heap.newObject(c);
+              memory.set(fp+a, memory.get(machine.sp));
+              break;
+            }
+            case HPUSH:
+              if (machine.hp + 1 > sp) throw ExecuteVM.collision(machine.hp + 1, sp); // prima di sovrascrivere lo stack
+              memory.set(machine.hp++, memory.get(fp+a));
+              break;
+            case PRINT:
+              output.print(memory.get(fp+a));
+              break;
+            default:
+              throw new IllegalStateException("Unknown register opcode " + op + " at " + (ip-WIDTH));
+          }
+        }
+      } finally {
+        instructions += count;
+      }
+    }
+
+    // indirizzo del metodo di offset k nella dispatch table dell'oggetto
+    private static int method(Memory memory, int object, int k) {
+      return memory.get(memory.get(object & ExecuteVM.ADDRESS_MASK) + k);
+    }
+
+}
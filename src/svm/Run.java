@@ -0,0 +1,34 @@
+package svm;
+
+import java.nio.file.*;
+
+// esegue un programma gia' compilato senza passare dal front-end ne' dall'assembler ANTLR:
+// il file oggetto .svmo (scritto da compiler.Test con objectDump) oppure il testo .asm
+// (scritto con asmDump), assemblato da Assembler.
+// java svm.Run [file [memSize]]: di default il file che Test scrive per test/prova.fool
+public class Run {
+    public static void main(String[] args) throws Exception {
+
+    	String fileName = args.length > 0 ? args[0] : "test/prova.fool.svmo";
+    	int memSize = args.length > 1 ? Integer.parseInt(args[1]) : ExecuteVM.MEMSIZE;
+    	if (!Files.exists(Path.of(fileName))) {
+    		System.out.println(fileName+" not found: run compiler.Test with objectDump (or asmDump) set to true to write it.");
+    		System.exit(1);
+    	}
+
+    	ExecuteVM vm;
+    	if (fileName.endsWith(".asm")) {
+    		Assembler assembler = Assembler.fromFile(Path.of(fileName));
+    		assembler.assemble();
+    		if (assembler.errors > 0) {
+    			System.out.println("You had "+assembler.errors+" assembly errors.");
+    			System.exit(1);
+    		}
+    		vm = new ExecuteVM(assembler.code(), memSize);
+    	} else {
+    		vm = ObjectFile.load(Path.of(fileName)).createVM(memSize);
+    	}
+    	vm.cpu();
+
+    }
+}
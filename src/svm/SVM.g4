@@ -13,6 +13,9 @@ public int[] code = new int[ExecuteVM.CODESIZE];
 private int i = 0;
 private Map<String,Integer> labelDef = new HashMap<>();
 private Map<Integer,String> labelRef = new HashMap<>();
+
+public int codeSize() { return i; } // parole di codice assemblate
+public Map<String,Integer> labels() { return labelDef; }
 }
 
 /*------------------------------------------------------------------
@@ -52,8 +55,13 @@ instruction :
 	  | COPYFP          {code[i++] = COPYFP;}   //
 	  | LOADHP          {code[i++] = LOADHP;}   //
 	  | STOREHP         {code[i++] = STOREHP;}   //
+	  | NEW n=INTEGER   {code[i++] = NEW;
+	                     code[i++] = Integer.parseInt($n.text);}
 	  | PRINT           {code[i++] = PRINT;}
 	  | HALT            {code[i++] = HALT;}
+	  | DISPATCH n=INTEGER {code[i++] = DISPATCH;
+	                        code[i++] = Integer.parseInt($n.text);}
+	  | TJS             {code[i++] = TJS;}
 	  ;
 	  
 /*------------------------------------------------------------------
@@ -81,8 +89,11 @@ STOREFP	 : 'sfp' ;
 COPYFP   : 'cfp' ;      
 LOADHP	 : 'lhp' ;	
 STOREHP	 : 'shp' ;	
+NEW	 : 'new' ;
 PRINT	 : 'print' ;	
 HALT	 : 'halt' ;	
+DISPATCH : 'dispatch' ; // in coda, per non cambiare i codici delle istruzioni esistenti
+TJS	 : 'tjs' ;
  
 COL	 : ':' ;
 LABEL	 : ('a'..'z'|'A'..'Z')('a'..'z' | 'A'..'Z' | '0'..'9')* ;
@@ -0,0 +1,65 @@
+package svm;
+
+import java.io.IOException;
+import java.nio.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.Arrays;
+
+// formato dei file di snapshot della VM: un header di HEADER interi (registri e stato
+// dell'heap) seguito dall'immagine della memoria, in byte order nativo, cosi' che al
+// ripristino il file possa essere mappato e usato direttamente come memoria della VM
+final class Snapshot {
+
+    private static final int MAGIC = 0x53564d53; // "SVMS" (letto al contrario se il byte order non e' quello nativo)
+    private static final int VERSION = 1;
+    private static final int HEADER = 16;
+
+    private Snapshot() {
+    }
+
+    static void save(ExecuteVM vm, Path file) throws IOException {
+      Memory memory = vm.memory;
+      long bytes = (HEADER + (long) memory.size()) * 4;
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+          StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, bytes);
+        IntBuffer out = mapped.order(ByteOrder.nativeOrder()).asIntBuffer();
+        out.put(MAGIC).put(VERSION).put(Arrays.hashCode(vm.code)).put(memory.size());
+        out.put(vm.ip).put(vm.sp).put(vm.fp).put(vm.hp).put(vm.ra).put(vm.tm);
+        vm.heap.save(out);
+        out.position(HEADER);
+        for (int a = 0; a < memory.size(); a++) out.put(memory.get(a));
+        mapped.force();
+      }
+    }
+
+    // la memoria della nuova VM e' una mappatura privata del file: le pagine sono lette
+    // solo quando servono e le scritture della VM non modificano lo snapshot
+    static ExecuteVM load(int[] code, DecodedCode decoded, Path file) throws IOException {
+      MappedByteBuffer mapped;
+      // (la mappatura privata richiede comunque un canale aperto anche in scrittura)
+      try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+        mapped = channel.map(FileChannel.MapMode.PRIVATE, 0, channel.size());
+      }
+      IntBuffer in = mapped.order(ByteOrder.nativeOrder()).asIntBuffer();
+      if (in.limit() < HEADER || in.get() != MAGIC || in.get() != VERSION)
+        throw new IOException("Not a VM snapshot: " + file);
+      if (in.get() != Arrays.hashCode(code))
+        throw new IllegalArgumentException("Snapshot " + file + " was taken from a different program");
+      int size = in.get();
+      if (in.limit() != HEADER + size) throw new IOException("Truncated VM snapshot: " + file);
+      ExecuteVM vm = decoded != null
+          ? new ExecuteVM(decoded, new BufferMemory(mapped.position(HEADER * 4).slice()))
+          : new ExecuteVM(code, new BufferMemory(mapped.position(HEADER * 4).slice()));
+      vm.ip = in.get();
+      vm.sp = in.get();
+      vm.fp = in.get();
+      vm.hp = in.get();
+      vm.ra = in.get();
+      vm.tm = in.get();
+      vm.heap.load(in);
+      return vm;
+    }
+
+}
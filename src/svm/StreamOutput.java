@@ -0,0 +1,33 @@
+package svm;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+// output su uno stream (di default System.out), bufferizzato: lo stream riceve
+// blocchi di righe invece di una scrittura sincronizzata per ogni print
+public class StreamOutput extends TextOutput {
+
+    private final OutputStream out;
+
+    public StreamOutput(OutputStream out) {
+      this(out, 8192);
+    }
+
+    public StreamOutput(OutputStream out, int bufferSize) {
+      super(ByteBuffer.allocate(bufferSize));
+      this.out = out;
+    }
+
+    @Override
+    protected void write(ByteBuffer bytes) throws IOException {
+      out.write(bytes.array(), bytes.arrayOffset() + bytes.position(), bytes.remaining());
+      bytes.position(bytes.limit());
+    }
+
+    @Override
+    protected void flushTarget() throws IOException {
+      out.flush();
+    }
+
+}
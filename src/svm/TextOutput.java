@@ -0,0 +1,72 @@
+package svm;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+
+// output testuale (una riga per print, come System.out.println) accumulato in un
+// buffer di byte che le sottoclassi svuotano quando e' pieno e al flush
+public abstract class TextOutput implements Output {
+
+    private static final byte[] EMPTY = "Empty stack!".getBytes();
+    private static final byte[] NEWLINE = System.lineSeparator().getBytes();
+    private static final int MAX_LINE = 11 + EMPTY.length + NEWLINE.length;
+
+    private final ByteBuffer buffer;
+    private final byte[] digits = new byte[11];
+
+    protected TextOutput(ByteBuffer buffer) {
+      if (buffer.capacity() < MAX_LINE) throw new IllegalArgumentException("Output buffer too small");
+      this.buffer = buffer;
+    }
+
+    @Override
+    public void print(int value) {
+      if (buffer.remaining() < MAX_LINE) drain();
+      // cifre scritte da destra, con il valore negato per gestire anche Integer.MIN_VALUE
+      int i = digits.length;
+      int v = value > 0 ? -value : value;
+      do {
+        digits[--i] = (byte) ('0' - v % 10);
+        v /= 10;
+      } while (v != 0);
+      if (value < 0) digits[--i] = '-';
+      buffer.put(digits, i, digits.length - i);
+      buffer.put(NEWLINE);
+    }
+
+    @Override
+    public void printEmpty() {
+      if (buffer.remaining() < MAX_LINE) drain();
+      buffer.put(EMPTY);
+      buffer.put(NEWLINE);
+    }
+
+    @Override
+    public void flush() {
+      drain();
+      try {
+        flushTarget();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private void drain() {
+      buffer.flip();
+      try {
+        if (buffer.hasRemaining()) write(buffer);
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      } finally {
+        buffer.clear();
+      }
+    }
+
+    // scrive tutti i byte rimanenti nel buffer
+    protected abstract void write(ByteBuffer bytes) throws IOException;
+
+    protected void flushTarget() throws IOException {
+    }
+
+}
@@ -0,0 +1,46 @@
+package svm;
+
+import java.io.PrintStream;
+
+// buffer circolare delle ultime istruzioni eseguite da cpu(), con lo stato dei registri
+// prima di ognuna, per capire come si e' arrivati a un errore senza rieseguire il programma
+public class Trace {
+
+    private final int[] ip, op, sp, fp, hp;
+    private final int mask;
+    private long count; // istruzioni registrate in tutto
+
+    // size arrotondata alla potenza di 2 successiva
+    Trace(int size) {
+      int n = Integer.highestOneBit(Math.max(size - 1, 1)) << 1;
+      ip = new int[n];
+      op = new int[n];
+      sp = new int[n];
+      fp = new int[n];
+      hp = new int[n];
+      mask = n - 1;
+    }
+
+    void record(int ip, int op, int sp, int fp, int hp) {
+      int k = (int) count++ & mask;
+      this.ip[k] = ip;
+      this.op[k] = op;
+      this.sp[k] = sp;
+      this.fp[k] = fp;
+      this.hp[k] = hp;
+    }
+
+    // dalla meno recente alla piu' recente
+    public void dump(PrintStream out) {
+      long first = Math.max(0, count - ip.length);
+      out.println("Last " + (count - first) + " of " + count + " instructions:");
+      out.printf("%8s  %-12s %8s %8s %8s%n", "ip", "instruction", "sp", "fp", "hp");
+      for (long i = first; i < count; i++) {
+        int k = (int) i & mask;
+        String name = DecodedCode.opcode(op[k]) == DecodedCode.NOP ? "?" + op[k] : Code.mnemonic(op[k]);
+        out.printf("%8d  %-12s %8d %8d %8d%n", ip[k], name, sp[k], fp[k], hp[k]);
+      }
+      out.flush();
+    }
+
+}